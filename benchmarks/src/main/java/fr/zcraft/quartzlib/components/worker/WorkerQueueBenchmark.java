@@ -0,0 +1,196 @@
+/*
+ * Copyright or © or Copr. QuartzLib contributors (2015 - 2020)
+ *
+ * This software is governed by the CeCILL-B license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-B
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-B license and that you accept its terms.
+ */
+
+package fr.zcraft.quartzlib.components.worker;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the submission throughput of the worker run queue, with many threads submitting jobs
+ * while a single thread takes them, as the worker does.
+ *
+ * <p>A single consumer cannot keep up with eight producers: to measure a steady state instead of
+ * the growth of an ever larger heap, the producers wait when {@value #BACKLOG} jobs are waiting,
+ * and the consumer lets them submit again as it takes the jobs. Both queues pay for this in the
+ * same way.</p>
+ *
+ * <p>{@code locking} is the previous implementation of the queue (a priority heap guarded by a
+ * monitor, with {@code wait}/{@code notify}); {@code lockFree} is the current {@link WorkerQueue}.
+ * Run with {@code java -jar benchmarks/target/benchmarks.jar WorkerQueueBenchmark}.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class WorkerQueueBenchmark {
+    private static final int BACKLOG = 1024;
+
+    private static final WorkerRunnable<Void> RUNNABLE = new WorkerRunnable<Void>() {
+        @Override
+        public Void run() {
+            return null;
+        }
+    };
+
+    @Benchmark
+    public Object locking(LockingState state) throws InterruptedException {
+        final WorkerJob<Void> job = newJob();
+        state.backlog.acquire();
+        state.queue.offer(job);
+        return job;
+    }
+
+    @Benchmark
+    public Object lockFree(LockFreeState state) throws InterruptedException {
+        final WorkerJob<Void> job = newJob();
+        state.backlog.acquire();
+        return state.queue.offer(job);
+    }
+
+    private static WorkerJob<Void> newJob() {
+        return new WorkerJob<>(RUNNABLE, null, WorkerPriority.NORMAL, WorkerJob.NO_DEADLINE, job -> {
+        });
+    }
+
+    /**
+     * A queue with a consumer thread taking its jobs, as the worker does.
+     */
+    public abstract static class ConsumedState {
+        protected Semaphore backlog;
+        private Thread consumer;
+
+        @Setup(Level.Iteration)
+        public void startConsumer() {
+            backlog = new Semaphore(BACKLOG);
+            consumer = new Thread(() -> {
+                try {
+                    while (true) {
+                        take();
+                        backlog.release();
+                    }
+                } catch (InterruptedException ignored) {
+                    // End of the iteration.
+                }
+            }, "benchmark-consumer");
+            consumer.setDaemon(true);
+            consumer.start();
+        }
+
+        @TearDown(Level.Iteration)
+        public void stopConsumer() throws InterruptedException {
+            consumer.interrupt();
+            consumer.join();
+            clear();
+        }
+
+        protected abstract void take() throws InterruptedException;
+
+        protected abstract void clear();
+    }
+
+    @State(Scope.Benchmark)
+    public static class LockingState extends ConsumedState {
+        private final LockingQueue queue = new LockingQueue();
+
+        @Override
+        protected void take() throws InterruptedException {
+            queue.take();
+        }
+
+        @Override
+        protected void clear() {
+            queue.clear();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class LockFreeState extends ConsumedState {
+        private final WorkerQueue queue = new WorkerQueue("benchmark", 0, WorkerRejectionPolicy.FAIL, job -> {
+        }, job -> {
+        }, new WorkerHistogram());
+
+        @Override
+        protected void take() throws InterruptedException {
+            queue.take();
+        }
+
+        @Override
+        protected void clear() {
+            queue.clear();
+        }
+    }
+
+    /**
+     * The run queue as it was before the lock-free inbox: every submission and every take locks
+     * the heap, and the consumer is woken up with {@code notifyAll}.
+     */
+    private static final class LockingQueue {
+        private final PriorityQueue<WorkerJob<?>> jobs = new PriorityQueue<>();
+
+        void offer(WorkerJob<?> job) {
+            synchronized (jobs) {
+                jobs.add(job);
+                jobs.notifyAll();
+            }
+        }
+
+        WorkerJob<?> take() throws InterruptedException {
+            synchronized (jobs) {
+                while (jobs.isEmpty()) {
+                    jobs.wait();
+                }
+                return jobs.poll();
+            }
+        }
+
+        void clear() {
+            synchronized (jobs) {
+                jobs.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright or © or Copr. QuartzLib contributors (2015 - 2020)
+ *
+ * This software is governed by the CeCILL-B license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-B
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-B license and that you accept its terms.
+ */
+
+package fr.zcraft.quartzlib.tools.reflection;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares building a packet-like object through the reflective {@link Reflection} methods
+ * ({@code instantiate}, {@code setFieldValue} and {@code call}) and through the method handles
+ * returned by {@link Reflection#constructor}, {@link Reflection#setter} and
+ * {@link Reflection#invoker}, stored in {@code static final} fields.
+ *
+ * <p>Run with {@code java -jar benchmarks/target/benchmarks.jar ReflectionBenchmark}.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ReflectionBenchmark {
+    private static final MethodHandle CONSTRUCTOR;
+    private static final MethodHandle SET_NAME;
+    private static final MethodHandle SET_VALUE;
+    private static final MethodHandle COMPUTE;
+
+    static {
+        try {
+            CONSTRUCTOR = Reflection.constructor(Packet.class);
+            SET_NAME = Reflection.setter(Packet.class, "a");
+            SET_VALUE = Reflection.setter(Packet.class, "c");
+            COMPUTE = Reflection.invoker(Packet.class, "compute", String.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final String name = "score";
+    private final Integer value = 42;
+
+    @Benchmark
+    public Object reflection() throws Exception {
+        final Object packet = Reflection.instantiate(Packet.class);
+        Reflection.setFieldValue(packet, "a", name);
+        Reflection.setFieldValue(packet, "c", value);
+        return Reflection.call(packet, "compute", name);
+    }
+
+    @Benchmark
+    public Object methodHandles() throws Throwable {
+        final Object packet = (Object) CONSTRUCTOR.invokeExact();
+        SET_NAME.invokeExact(packet, (Object) name);
+        SET_VALUE.invokeExact(packet, (Object) value);
+        return (Object) COMPUTE.invokeExact(packet, (Object) name);
+    }
+
+    /**
+     * A stand-in for an NMS packet, with private members only.
+     */
+    private static final class Packet {
+        private String a;
+        private int c;
+
+        private Packet() {
+        }
+
+        private String compute(String suffix) {
+            return a.length() + c + suffix;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright or © or Copr. QuartzLib contributors (2015 - 2020)
+ *
+ * This software is governed by the CeCILL-B license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-B
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-B license and that you accept its terms.
+ */
+
+package fr.zcraft.quartzlib.tools.runners;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the {@link TimingWheel} behind {@link RunTask#laterLight(Runnable, long)} to a priority
+ * heap ordered by due tick, which is how the Bukkit scheduler keeps its pending tasks, with 100 000
+ * pending tasks (cooldowns of up to a minute).
+ *
+ * <p>{@code *ScheduleCancel} defers a task and cancels it right away, leaving the number of pending
+ * tasks unchanged; {@code *Tick} advances by one tick and defers the expired tasks again. Run with
+ * {@code java -jar benchmarks/target/benchmarks.jar TimingWheelBenchmark}.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TimingWheelBenchmark {
+    private static final Runnable RUNNABLE = () -> {
+    };
+    private static final int MAX_DELAY = 1200;
+
+    @Param("100000")
+    private int pending;
+
+    private final SplittableRandom random = new SplittableRandom(42);
+    private final List<LightTask> expired = new ArrayList<>();
+    private TimingWheel wheel;
+    private PriorityQueue<HeapTask> heap;
+    private long heapTick;
+
+    @Setup(Level.Iteration)
+    public void fill() {
+        wheel = new TimingWheel();
+        heap = new PriorityQueue<>();
+        heapTick = 0;
+        for (int i = 0; i < pending; i++) {
+            wheel.add(new LightTask(RUNNABLE), 1 + random.nextInt(MAX_DELAY));
+            heap.add(new HeapTask(1 + random.nextInt(MAX_DELAY)));
+        }
+    }
+
+    @Benchmark
+    public Object wheelScheduleCancel() {
+        final LightTask task = new LightTask(RUNNABLE);
+        wheel.add(task, wheel.getCurrentTick() + 1 + random.nextInt(MAX_DELAY));
+        wheel.remove(task);
+        return task;
+    }
+
+    @Benchmark
+    public Object heapScheduleCancel() {
+        final HeapTask task = new HeapTask(heapTick + 1 + random.nextInt(MAX_DELAY));
+        heap.add(task);
+        heap.remove(task);
+        return task;
+    }
+
+    @Benchmark
+    public int wheelTick() {
+        wheel.advance(expired);
+        final int count = expired.size();
+        for (LightTask task : expired) {
+            wheel.add(task, wheel.getCurrentTick() + 1 + random.nextInt(MAX_DELAY));
+        }
+        expired.clear();
+        return count;
+    }
+
+    @Benchmark
+    public int heapTick() {
+        final long tick = ++heapTick;
+        int count = 0;
+        while (!heap.isEmpty() && heap.peek().due <= tick) {
+            final HeapTask task = heap.poll();
+            task.due = tick + 1 + random.nextInt(MAX_DELAY);
+            heap.add(task);
+            count++;
+        }
+        return count;
+    }
+
+    private static final class HeapTask implements Comparable<HeapTask> {
+        private long due;
+
+        private HeapTask(long due) {
+            this.due = due;
+        }
+
+        @Override
+        public int compareTo(HeapTask other) {
+            return Long.compare(due, other.due);
+        }
+    }
+}
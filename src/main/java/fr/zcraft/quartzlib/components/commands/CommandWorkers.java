@@ -10,17 +10,24 @@ import fr.zcraft.quartzlib.tools.mojang.UUIDFetcher;
 import java.util.UUID;
 import java.util.function.Consumer;
 
-@WorkerAttributes(name = "Command's worker", queriesMainThread = true)
+@WorkerAttributes(name = "Command's worker", queriesMainThread = true, permitsPerSecond = 5)
 public class CommandWorkers extends Worker {
 
     /**
      * Fetches an offline player's UUID by name.
+     *
+     * <p>If the name is not found, its original owner is looked up by a second query, so that each
+     * request to the Mojang API waits for its own permit.</p>
      */
     public void offlineNameFetch(final String playerName, final Consumer<UUID> callback) {
         final WorkerCallback wCallback = new WorkerCallback<UUID>() {
             @Override
             public void finished(UUID result) {
-                callback.accept(result);  // Si tout va bien on passe l'UUID au callback
+                if (result != null) {
+                    callback.accept(result);  // Si tout va bien on passe l'UUID au callback
+                } else {
+                    originalNameFetch(playerName, callback);
+                }
             }
 
             @Override
@@ -32,7 +39,33 @@ public class CommandWorkers extends Worker {
         WorkerRunnable wr = new WorkerRunnable<UUID>() {
             @Override
             public UUID run() throws Throwable {
-                return UUIDFetcher.fetch(playerName);
+                return UUIDFetcher.fetchWithoutDelay(playerName);
+            }
+        };
+        submitQuery(wr, wCallback);
+    }
+
+    /**
+     * Fetches the UUID of the original owner of a name, for the names not found by
+     * {@link #offlineNameFetch(String, Consumer)}.
+     */
+    private void originalNameFetch(final String playerName, final Consumer<UUID> callback) {
+        final WorkerCallback wCallback = new WorkerCallback<UUID>() {
+            @Override
+            public void finished(UUID result) {
+                callback.accept(result);
+            }
+
+            @Override
+            public void errored(Throwable exception) {
+                PluginLogger.warning(I.t("Error while getting player UUID"));
+                callback.accept(null);
+            }
+        };
+        WorkerRunnable wr = new WorkerRunnable<UUID>() {
+            @Override
+            public UUID run() throws Throwable {
+                return UUIDFetcher.fetchOriginalWithoutDelay(playerName);
             }
         };
         submitQuery(wr, wCallback);
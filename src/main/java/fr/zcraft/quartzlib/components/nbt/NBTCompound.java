@@ -31,6 +31,7 @@
 package fr.zcraft.quartzlib.components.nbt;
 
 import fr.zcraft.quartzlib.tools.PluginLogger;
+import fr.zcraft.quartzlib.tools.reflection.Reflection;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -224,16 +225,13 @@ public class NBTCompound implements Map<String, Object> {
         try {
             switch (NBT.fromNativeValue(value).getClass().getName()) {
                 case "net.minecraft.nbt.NBTTagInt":
-                    Method method;
-                    try {
-                        // Cannot use Reflection.call here because int is casted as an integer and we need the method
-                        // with an int
-                        method = nmsNbtTag.getClass().getMethod("a", String.class, int.class);
-                        method.invoke(nmsNbtTag, key, value);
-                    } catch (Exception e) {
-                        method = nmsNbtTag.getClass().getMethod("setInt", String.class, int.class);
-                        method.invoke(nmsNbtTag, key, value);
-                    }
+                    // Cannot use Reflection.call here because int is casted as an integer and we need the method
+                    // with an int
+                    final Class<?> tagClass = nmsNbtTag.getClass();
+                    final Method method = Reflection.hasMethod(tagClass, "a", String.class, int.class)
+                            ? Reflection.getMethod(tagClass, "a", String.class, int.class)
+                            : Reflection.getMethod(tagClass, "setInt", String.class, int.class);
+                    method.invoke(nmsNbtTag, key, value);
 
                     break;
                 default:
@@ -259,11 +259,11 @@ enum NBTType {
                     //TODO check if in 1.18 a getter is added for this one.
                     List list = new ArrayList();
 
-                    for (int i = 0; i < (int) Reflection.call(nmsNbtTag.getClass(), nmsNbtTag, "size"); i++) {
-                        //Strange thing of java a call cast int into integer resulting in the impossibility
-                        // to call the method
-                        final Method method = nmsNbtTag.getClass().getMethod("get", int.class);
+                    //Strange thing of java a call cast int into integer resulting in the impossibility
+                    // to call the method
+                    final Method method = Reflection.getMethod(nmsNbtTag.getClass(), "get", int.class);
 
+                    for (int i = 0; i < (int) Reflection.call(nmsNbtTag.getClass(), nmsNbtTag, "size"); i++) {
                         // Cannot use Reflection.call for the same reason as above.
                         list.add(method.invoke(nmsNbtTag, i));
                     }
@@ -36,11 +36,11 @@ import fr.zcraft.quartzlib.exceptions.IncompatibleMinecraftVersionException;
 import fr.zcraft.quartzlib.tools.PluginLogger;
 import fr.zcraft.quartzlib.tools.reflection.NMSNetwork;
 import fr.zcraft.quartzlib.tools.reflection.Reflection;
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.InvocationTargetException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
 import org.apache.commons.lang.Validate;
 import org.bukkit.entity.Player;
 
@@ -58,7 +58,6 @@ import org.bukkit.entity.Player;
  * @author Amaury Carrade
  */
 public class ObjectiveSender {
-    private static final Map<UUID, Object> playersConnections = new ConcurrentHashMap<>();
     private static final Map<UUID, String> sentObjectives = new HashMap<>();
 
 
@@ -467,37 +466,46 @@ public class ObjectiveSender {
      */
     private static void sendScoreboardScorePacket(Object connection, String objectiveName, String scoreName,
                                                   int scoreValue, Object action) {
+        if (ScorePacket.ERROR != null) {
+            throw new IncompatibleMinecraftVersionException("Cannot send PacketPlayOutScoreboardScore",
+                    ScorePacket.ERROR);
+        }
+
         try {
-            Object packet = Reflection.instantiate(packetPlayOutScoreboardScoreClass);
+            final Object packet = (Object) ScorePacket.CONSTRUCTOR.invokeExact();
 
-            Reflection.setFieldValue(packet, "a", scoreName);     // Score name
-            Reflection.setFieldValue(packet, "b", objectiveName); // Objective name this score belongs to
-            Reflection.setFieldValue(packet, "c", scoreValue);    // Score value
-            Reflection.setFieldValue(packet, "d", action);        // Action (enum member - CHANGE or REMOVE)
+            ScorePacket.SET_SCORE_NAME.invokeExact(packet, (Object) scoreName);
+            ScorePacket.SET_OBJECTIVE_NAME.invokeExact(packet, (Object) objectiveName);
+            ScorePacket.SET_SCORE_VALUE.invokeExact(packet, (Object) scoreValue);
+            ScorePacket.SET_ACTION.invokeExact(packet, action);
 
             NMSNetwork.sendPacket(connection, packet);
-        } catch (NoSuchMethodException | InstantiationException | IllegalAccessException | NoSuchFieldException e) {
-            throw new IncompatibleMinecraftVersionException("Cannot send PacketPlayOutScoreboardScore", e);
         } catch (InvocationTargetException e) {
             throw new RuntimeException("An exception was caught while sending a PacketPlayOutScoreboardScore",
                     e.getCause());
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException("An exception was caught while sending a PacketPlayOutScoreboardScore", e);
         }
     }
 
 
 
-    /* **  Players connections caching  ** */
+    /* **  Players connections  ** */
 
     /**
-     * Retrieves and returns a player's network connection. This method caches the connection.
+     * Retrieves and returns a player's network connection, from the connections cached by
+     * {@link NMSNetwork}.
      *
      * @param id The player's UUID.
      * @return The connection, or {@code null} if the player is not logged in.
      * @throws RuntimeException if the connection cannot be retrieved for some reason.
      */
     private static Object getPlayerConnection(UUID id) {
-        if (playersConnections.containsKey(id)) {
-            return playersConnections.get(id);
+        final Object cachedConnection = NMSNetwork.getCachedPlayerConnection(id);
+        if (cachedConnection != null) {
+            return cachedConnection;
         }
 
         try {
@@ -507,9 +515,8 @@ public class ObjectiveSender {
                 return null;
             }
 
-            Object connection = NMSNetwork.getPlayerConnection(player);
+            final Object connection = NMSNetwork.getPlayerConnection(player);
             if (connection != null) {
-                playersConnections.put(id, connection);
                 return connection;
             } else {
                 throw new RuntimeException("Unable to retrieve a player's connection (UUID: " + id + ")");
@@ -520,19 +527,58 @@ public class ObjectiveSender {
     }
 
     /**
-     * Invalidates the stored connection of a player, and removes the last objective sent, because
-     * if the used logged out and now log back in, the client removed by itself the previously-sent
-     * objective.
+     * Removes the last objective sent to a player, because if the used logged out and now log back
+     * in, the client removed by itself the previously-sent objective.
      *
-     * @param id The UUID of the invalidated connection.
+     * @param id The UUID of the player.
      */
     public static void handleLogin(UUID id) {
-        synchronized (playersConnections) {
-            playersConnections.remove(id);
-        }
-
         synchronized (sentObjectives) {
             sentObjectives.remove(id);
         }
     }
+
+
+    /**
+     * The accessors building the score packets, the most frequently sent ones, compiled once as
+     * method handles instead of being looked up and invoked reflectively for each packet.
+     */
+    private static final class ScorePacket {
+        private static final MethodHandle CONSTRUCTOR;
+        private static final MethodHandle SET_SCORE_NAME;
+        private static final MethodHandle SET_OBJECTIVE_NAME;
+        private static final MethodHandle SET_SCORE_VALUE;
+        private static final MethodHandle SET_ACTION;
+        private static final ReflectiveOperationException ERROR;
+
+        static {
+            MethodHandle constructor = null;
+            MethodHandle setScoreName = null;
+            MethodHandle setObjectiveName = null;
+            MethodHandle setScoreValue = null;
+            MethodHandle setAction = null;
+            ReflectiveOperationException exception = null;
+
+            try {
+                if (packetPlayOutScoreboardScoreClass == null) {
+                    throw new ClassNotFoundException("PacketPlayOutScoreboardScore");
+                }
+
+                constructor = Reflection.constructor(packetPlayOutScoreboardScoreClass);
+                setScoreName = Reflection.setter(packetPlayOutScoreboardScoreClass, "a");
+                setObjectiveName = Reflection.setter(packetPlayOutScoreboardScoreClass, "b");
+                setScoreValue = Reflection.setter(packetPlayOutScoreboardScoreClass, "c");
+                setAction = Reflection.setter(packetPlayOutScoreboardScoreClass, "d");
+            } catch (ReflectiveOperationException e) {
+                exception = e;
+            }
+
+            CONSTRUCTOR = constructor;
+            SET_SCORE_NAME = setScoreName;
+            SET_OBJECTIVE_NAME = setObjectiveName;
+            SET_SCORE_VALUE = setScoreValue;
+            SET_ACTION = setAction;
+            ERROR = exception;
+        }
+    }
 }
@@ -34,34 +34,137 @@ import fr.zcraft.quartzlib.core.QuartzComponent;
 import fr.zcraft.quartzlib.core.QuartzLib;
 import fr.zcraft.quartzlib.tools.PluginLogger;
 import fr.zcraft.quartzlib.tools.reflection.Reflection;
-import java.util.ArrayDeque;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.Callable;
-import java.util.concurrent.Future;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import org.bukkit.Bukkit;
 
 /**
  * The base class for workers.
  * A worker is a thread that can handle multiple tasks, which are executed in a queue.
+ *
+ * <p>By default, the tasks are run one at a time by the worker's thread. Workers annotated with
+ * {@link WorkerAttributes#mode()} set to {@link WorkerMode#POOL} (or with more than one
+ * {@link WorkerAttributes#threads() thread}) run them in parallel on a bounded pool of threads.
+ * On Java 21 and later, workers in {@link WorkerMode#VIRTUAL_THREADS} mode run each task on its
+ * own virtual thread.</p>
+ *
+ * <p>Queries are started by decreasing {@link WorkerPriority priority}, then in submission order.
+ * A query may also have a deadline: if it could not be started before it, it is dropped when the
+ * deadline is reached and its callback receives a {@link TimeoutException}. Workers running their
+ * queries on their own thread can only drop it once their current query is complete.</p>
+ *
+ * <p>The queue of a worker can be bounded using {@link WorkerAttributes#capacity()}; see
+ * {@link WorkerRejectionPolicy} for what happens to the queries submitted while it is full.</p>
+ *
+ * <p>Queries submitted with a key (see {@link WorkerHandle#submitKeyed(Object, WorkerRunnable)})
+ * are run in submission order with respect to the other queries of the same key, while queries of
+ * different keys may run in parallel. The keys are hashed onto a fixed set of serial
+ * {@link WorkerAttributes#lanes() lanes}, so no lock is needed per key.</p>
+ *
+ * <p>Identical queries can be coalesced using
+ * {@link WorkerHandle#submitShared(Object, WorkerRunnable, WorkerCallback)}: the callers
+ * submitting a query while another one with the same key is running share its execution and
+ * result.</p>
+ *
+ * <p>Queries can also be {@link WorkerHandle#schedule(WorkerRunnable, long, TimeUnit) delayed} or
+ * {@link WorkerHandle#scheduleAtFixedRate(WorkerRunnable, long, long, TimeUnit) periodic}: they
+ * then wait in a timer heap owned by the worker's thread, without any Bukkit task.</p>
+ *
+ * <p>By default, a worker is interrupted as soon as it is disabled, and its queued queries are
+ * dropped: their futures are completed with a
+ * {@link java.util.concurrent.RejectedExecutionException}. Workers with a
+ * {@link WorkerAttributes#shutdownTimeout() shutdown timeout} instead stop accepting queries and
+ * complete the queued ones (up to this timeout) before stopping.</p>
+ *
+ * <p>Each worker records {@link #getMetrics() metrics} about its queue, its queries and their
+ * callbacks; they can be dumped in game with the {@link WorkerStatsCommand}.</p>
+ *
+ * <p>Queries are submitted through the {@link WorkerHandle} methods of the worker (a worker is a
+ * handle to itself, see also {@link #getHandle(Class)}). The static {@code submitQuery} methods
+ * are kept for compatibility: they find the worker by inspecting the call stack, which is much
+ * slower.</p>
  */
-public abstract class Worker extends QuartzComponent {
+public abstract class Worker extends QuartzComponent implements WorkerHandle {
     /*===== Static API =====*/
-    private static final HashMap<Class<? extends Worker>, Worker> runningWorkers = new HashMap();
-    private static final HashMap<Class<? extends WorkerRunnable>, Worker> runnables = new HashMap();
+    private static final Map<Class<? extends Worker>, Worker> runningWorkers = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Worker> currentWorker = new ThreadLocal<>();
+    private static final long DRAIN_POLL_INTERVAL = 10;
     private final String name;
-    private final ArrayDeque<WorkerRunnable> runQueue = new ArrayDeque<>();
+    private final WorkerMode mode;
+    private final int poolSize;
+    private final WorkerQueue runQueue;
+    private final WorkerLane[] lanes;
+    private final Map<Object, SharedQuery> sharedQueries = new ConcurrentHashMap<>();
+    private final Set<WorkerJob<?>> startingJobs = ConcurrentHashMap.newKeySet();
+    private final long shutdownTimeout;
+    private final AtomicInteger pendingJobs = new AtomicInteger();
+    private final Object drainLock = new Object();
+    private volatile boolean stopping = false;
+    private final LongAdder rejectedQueries = new LongAdder();
+    private final WorkerRateLimiter rateLimiter;
+    private final LongAdder throttledQueries = new LongAdder();
+    private volatile boolean throttled = false;
+    private final Executor executorView = this::submitTask;
+    private final WorkerMetrics metrics = new WorkerMetrics();
+    private final LongAdder[] waitTimes = newAdders(WorkerPriority.values().length);
+    private final LongAdder[] startedQueries = newAdders(WorkerPriority.values().length);
     private final WorkerCallbackManager callbackManager;
     private final WorkerMainThreadExecutor mainThreadExecutor;
-    private Thread thread;
+    private volatile Thread thread;
+    private ExecutorService executor;
+    private Semaphore executorSlots;
 
     /**
      * Creates a new worker.
      */
     public Worker() {
         String tempName = null;
+        long callbacksTimeBudget = WorkerCallbackManager.DEFAULT_TIME_BUDGET;
+        WorkerMode tempMode = WorkerMode.DEDICATED_THREAD;
+        int threads = 1;
+        int capacity = 0;
+        WorkerRejectionPolicy rejectionPolicy = WorkerRejectionPolicy.FAIL;
+        int lanesCount = 16;
+        long tempShutdownTimeout = 0;
+        double permitsPerSecond = 0;
+        int burst = 1;
         WorkerAttributes attributes = getClass().getAnnotation(WorkerAttributes.class);
 
         if (attributes != null) {
             tempName = attributes.name();
+            callbacksTimeBudget = attributes.callbacksTimeBudget();
+            tempMode = attributes.mode();
+            threads = attributes.threads();
+            capacity = attributes.capacity();
+            rejectionPolicy = attributes.rejectionPolicy();
+            lanesCount = attributes.lanes();
+            tempShutdownTimeout = attributes.shutdownTimeout();
+            permitsPerSecond = attributes.permitsPerSecond();
+            burst = attributes.burst();
+            if (tempMode == WorkerMode.DEDICATED_THREAD && threads > 1) {
+                tempMode = WorkerMode.POOL;
+            } else if (tempMode == WorkerMode.POOL && threads < 2) {
+                threads = Runtime.getRuntime().availableProcessors();
+            }
             this.mainThreadExecutor = attributes.queriesMainThread() ? new WorkerMainThreadExecutor(tempName) : null;
         } else {
             this.mainThreadExecutor = null;
@@ -72,19 +175,225 @@ public abstract class Worker extends QuartzComponent {
         }
 
         this.name = tempName;
-        this.callbackManager = new WorkerCallbackManager(tempName);
+        this.mode = tempMode;
+        this.poolSize = Math.max(threads, 1);
+        this.shutdownTimeout = TimeUnit.MILLISECONDS.toNanos(Math.max(tempShutdownTimeout, 0));
+        this.rateLimiter = permitsPerSecond > 0 ? new WorkerRateLimiter(permitsPerSecond, burst) : null;
+        this.runQueue = new WorkerQueue(tempName, capacity, rejectionPolicy, this::reject, this::expire,
+                metrics.getQueueDepth());
+        this.callbackManager = new WorkerCallbackManager(tempName, callbacksTimeBudget, metrics.getCallbackLag());
+        this.lanes = new WorkerLane[Math.max(lanesCount, 1)];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new WorkerLane();
+        }
+    }
+
+    /**
+     * Sets how much time, in milliseconds, the main-thread tasks of all workers (callbacks,
+     * main-thread queries and continuations) may use at each tick. Pending tasks are run in a single
+     * pass, one worker at a time in a round-robin fashion, until this budget is spent. At least one
+     * task is run per tick, whatever the budget.
+     *
+     * @param milliseconds The per-tick time budget, in milliseconds.
+     */
+    public static void setMainThreadTimeBudget(long milliseconds) {
+        WorkerTickDispatcher.setTimeBudget(milliseconds);
+    }
+
+    /**
+     * Returns an executor running the tasks it receives on the main thread.
+     *
+     * <p>The tasks are run along with the main-thread queries of the workers, in the same
+     * time-budgeted batches, without scheduling a Bukkit task per submitted task. This is meant to
+     * be used to continue the futures returned by the workers on the main thread, e.g.
+     * {@code worker.submit(query).thenAcceptAsync(result -> ..., Worker.getMainThreadExecutor())}.</p>
+     *
+     * @return The main-thread executor.
+     */
+    public static Executor getMainThreadExecutor() {
+        return WorkerMainThreadExecutor.getContinuationsExecutor();
+    }
+
+    /**
+     * Returns the running workers of the plugin.
+     *
+     * @return An unmodifiable view of the running workers.
+     */
+    public static Collection<Worker> getRunningWorkers() {
+        return Collections.unmodifiableCollection(runningWorkers.values());
+    }
+
+    /**
+     * Returns a handle to the running worker of the given class.
+     *
+     * @param workerClass The class of the worker.
+     * @return The handle.
+     * @throws IllegalStateException if this worker is not running.
+     */
+    public static WorkerHandle getHandle(Class<? extends Worker> workerClass) {
+        return getWorker(workerClass);
+    }
+
+    /**
+     * Submits a query to the main thread, on behalf of the worker running the calling runnable.
+     * This method must be called from the thread running a {@link WorkerRunnable}; prefer
+     * {@link WorkerRunnable#submitToMainThread(Callable)}.
+     *
+     * @param callable The query to run on the main thread.
+     * @param <T>      The type of the query's result.
+     * @return A future completed with the result of the query, or {@code null} if the worker does
+     *         not {@link WorkerAttributes#queriesMainThread() query the main thread}.
+     */
+    protected static <T> CompletableFuture<T> submitToMainThread(Callable<T> callable) {
+        final Worker worker = currentWorker.get();
+        if (worker == null) {
+            throw new IllegalAccessError("Main thread queries must be submitted from a WorkerRunnable");
+        }
+
+        return worker.queryMainThread(callable);
+    }
+
+    protected static <T> WorkerFuture<T> submitQuery(WorkerRunnable<T> runnable) {
+        return getCallerWorker().submit(runnable);
+    }
+
+    protected static <T> WorkerFuture<T> submitQuery(WorkerRunnable<T> runnable, WorkerCallback<T> callback) {
+        return getCallerWorker().submit(runnable, callback);
+    }
+
+    protected static <T> WorkerFuture<T> submitQuery(WorkerRunnable<T> runnable, WorkerPriority priority) {
+        return getCallerWorker().submit(runnable, null, priority);
+    }
+
+    protected static <T> WorkerFuture<T> submitQuery(WorkerRunnable<T> runnable, WorkerCallback<T> callback,
+                                                     WorkerPriority priority) {
+        return getCallerWorker().submit(runnable, callback, priority);
+    }
+
+    /**
+     * Submits a query with a priority and a deadline.
+     * If the query cannot be started before the deadline (because the worker is busy with other
+     * queries), it is dropped and the {@link WorkerCallback#errored(Throwable)} method of the callback
+     * is called with a {@link TimeoutException}.
+     *
+     * @param runnable The query.
+     * @param callback The callback.
+     * @param priority The priority of the query.
+     * @param timeout  The maximal time the query may wait before being started.
+     * @param unit     The unit of the {@code timeout}.
+     * @param <T>      The type of the query's result.
+     * @return A cancellable future completed with the result of the query.
+     */
+    protected static <T> WorkerFuture<T> submitQuery(WorkerRunnable<T> runnable, WorkerCallback<T> callback,
+                                                     WorkerPriority priority, long timeout, TimeUnit unit) {
+        return getCallerWorker().submit(runnable, callback, priority, timeout, unit);
+    }
+
+    /**
+     * Submits a query to be run after all the previously submitted queries with the same key.
+     *
+     * @param key      The key of the query, e.g. the UUID of a player.
+     * @param runnable The query.
+     * @param <T>      The type of the query's result.
+     * @return A cancellable future completed with the result of the query.
+     * @see WorkerHandle#submitKeyed(Object, WorkerRunnable)
+     */
+    protected static <T> WorkerFuture<T> submitQuery(Object key, WorkerRunnable<T> runnable) {
+        return getCallerWorker().submitKeyed(key, runnable);
+    }
+
+    /**
+     * Submits a query to be run after all the previously submitted queries with the same key.
+     *
+     * @param key      The key of the query, e.g. the UUID of a player.
+     * @param runnable The query.
+     * @param callback The callback.
+     * @param <T>      The type of the query's result.
+     * @return A cancellable future completed with the result of the query.
+     * @see WorkerHandle#submitKeyed(Object, WorkerRunnable, WorkerCallback)
+     */
+    protected static <T> WorkerFuture<T> submitQuery(Object key, WorkerRunnable<T> runnable,
+                                                     WorkerCallback<T> callback) {
+        return getCallerWorker().submitKeyed(key, runnable, callback);
+    }
+
+    /**
+     * Submits a query, or attaches the caller to the running query with the same key.
+     *
+     * @param key      The key identifying the query.
+     * @param runnable The query.
+     * @param callback The callback.
+     * @param <T>      The type of the query's result.
+     * @return A cancellable future completed with the result of the shared query.
+     * @see WorkerHandle#submitShared(Object, WorkerRunnable, WorkerCallback)
+     */
+    protected static <T> WorkerFuture<T> submitSharedQuery(Object key, WorkerRunnable<T> runnable,
+                                                           WorkerCallback<T> callback) {
+        return getCallerWorker().submitShared(key, runnable, callback);
+    }
+
+    /**
+     * Submits a query, or attaches the caller to the running or recently completed query with the
+     * same key.
+     *
+     * @param key      The key identifying the query.
+     * @param runnable The query.
+     * @param callback The callback.
+     * @param ttl      How long the result of the query is reused after its completion.
+     * @param unit     The unit of the {@code ttl}.
+     * @param <T>      The type of the query's result.
+     * @return A cancellable future completed with the result of the shared query.
+     * @see WorkerHandle#submitShared(Object, WorkerRunnable, WorkerCallback, long, TimeUnit)
+     */
+    protected static <T> WorkerFuture<T> submitSharedQuery(Object key, WorkerRunnable<T> runnable,
+                                                           WorkerCallback<T> callback, long ttl, TimeUnit unit) {
+        return getCallerWorker().submitShared(key, runnable, callback, ttl, unit);
     }
 
-    protected static <T> Future<T> submitToMainThread(Callable<T> callable) {
-        return getCallerWorkerFromRunnable().internalSubmitToMainThread(callable);
+    /**
+     * Schedules a query to be run after a delay.
+     *
+     * @param runnable The query.
+     * @param delay    The time before the query may be started.
+     * @param unit     The unit of the {@code delay}.
+     * @param <T>      The type of the query's result.
+     * @return A cancellable future completed with the result of the query.
+     * @see WorkerHandle#schedule(WorkerRunnable, long, TimeUnit)
+     */
+    protected static <T> WorkerFuture<T> scheduleQuery(WorkerRunnable<T> runnable, long delay, TimeUnit unit) {
+        return getCallerWorker().schedule(runnable, delay, unit);
     }
 
-    protected static void submitQuery(WorkerRunnable runnable) {
-        getCallerWorker().internalSubmitQuery(runnable);
+    /**
+     * Schedules a query to be run after a delay.
+     *
+     * @param runnable The query.
+     * @param callback The callback.
+     * @param delay    The time before the query may be started.
+     * @param unit     The unit of the {@code delay}.
+     * @param <T>      The type of the query's result.
+     * @return A cancellable future completed with the result of the query.
+     * @see WorkerHandle#schedule(WorkerRunnable, WorkerCallback, long, TimeUnit)
+     */
+    protected static <T> WorkerFuture<T> scheduleQuery(WorkerRunnable<T> runnable, WorkerCallback<T> callback,
+                                                       long delay, TimeUnit unit) {
+        return getCallerWorker().schedule(runnable, callback, delay, unit);
     }
 
-    protected static void submitQuery(WorkerRunnable runnable, WorkerCallback callback) {
-        getCallerWorker().internalSubmitQuery(runnable, callback);
+    /**
+     * Schedules a query to be run periodically.
+     *
+     * @param runnable     The query.
+     * @param initialDelay The time before the first run.
+     * @param period       The time between the starts of two runs.
+     * @param unit         The unit of the {@code initialDelay} and {@code period}.
+     * @param <T>          The type of the query's result.
+     * @return A future to cancel the periodic query.
+     * @see WorkerHandle#scheduleAtFixedRate(WorkerRunnable, long, long, TimeUnit)
+     */
+    protected static <T> WorkerFuture<T> scheduleQueryAtFixedRate(WorkerRunnable<T> runnable, long initialDelay,
+                                                                  long period, TimeUnit unit) {
+        return getCallerWorker().scheduleAtFixedRate(runnable, initialDelay, period, unit);
     }
 
     private static Worker getCallerWorker() {
@@ -106,20 +415,6 @@ public abstract class Worker extends QuartzComponent {
         return worker;
     }
 
-    private static Worker getCallerWorkerFromRunnable() {
-        Class<? extends WorkerRunnable> caller = Reflection.getCallerClass(WorkerRunnable.class);
-        if (caller == null) {
-            throw new IllegalAccessError("Main thread queries must be submitted from a WorkerRunnable");
-        }
-
-        Worker worker = runnables.get(caller);
-        if (worker == null) {
-            throw new IllegalStateException("Caller runnable does not belong to any worker");
-        }
-
-        return worker;
-    }
-
     @Override
     public void onEnable() {
         if (thread != null && thread.isAlive()) {
@@ -131,65 +426,608 @@ public abstract class Worker extends QuartzComponent {
             mainThreadExecutor.init();
         }
         runningWorkers.put(getClass(), this);
+        stopping = false;
+        runQueue.open();
+        executor = createExecutor();
+        executorSlots = mode == WorkerMode.POOL ? new Semaphore(poolSize) : null;
         thread = createThread();
         thread.start();
     }
 
     @Override
     public void onDisable() {
-        thread.interrupt();
+        stopping = true;
+        if (shutdownTimeout > 0) {
+            cancelScheduledJobs();
+            drain();
+        }
+
+        // The thread is detached before being interrupted, as the query it runs may swallow the
+        // interruption: it stops once it sees it is not the thread of the worker anymore, instead
+        // of taking the next queued query. The pending queries are counted before, as the
+        // interrupted ones may complete right away.
+        final int pending = pendingJobs.get();
+        final Thread stoppedThread = thread;
+        thread = null;
+        stoppedThread.interrupt();
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+
+        // The futures of the queries which will never run are completed either way, so that
+        // nothing waits for them, and so that their lanes are released.
+        dropQueuedJobs(shutdownTimeout > 0, pending);
+
+        if (shutdownTimeout > 0) {
+            callbackManager.flush();
+            if (mainThreadExecutor != null) {
+                mainThreadExecutor.runQueued();
+            }
+            WorkerMainThreadExecutor.runQueuedContinuations();
+        }
+
         callbackManager.exit();
         if (mainThreadExecutor != null) {
             mainThreadExecutor.exit();
         }
-        thread = null;
         runningWorkers.remove(getClass());
     }
 
+    /**
+     * Waits for the queued and running queries to complete, up to the shutdown timeout. The
+     * main-thread queries of the worker are run meanwhile, as the main thread is blocked.
+     */
+    private void drain() {
+        final long deadline = System.nanoTime() + shutdownTimeout;
+
+        while (pendingJobs.get() > 0) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+
+            if (mainThreadExecutor != null) {
+                mainThreadExecutor.runQueued();
+            }
+
+            synchronized (drainLock) {
+                if (pendingJobs.get() > 0) {
+                    try {
+                        drainLock.wait(Math.max(Math.min(TimeUnit.NANOSECONDS.toMillis(remaining),
+                                DRAIN_POLL_INTERVAL), 1));
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Cancels the scheduled queries which are not due yet, as they would hold the drain until their
+     * scheduled time (forever for the periodic ones).
+     */
+    private void cancelScheduledJobs() {
+        for (WorkerJob<?> job : runQueue.clearScheduled()) {
+            complete(job, null, new CancellationException("The worker '" + name + "' is stopping"));
+        }
+    }
+
+    /**
+     * Drops the queries still queued (after the drain, if any), including the ones handed to the
+     * executor but not started, and completes them with a {@link RejectedExecutionException}.
+     *
+     * @param log     {@code true} to log what was dropped.
+     * @param pending The number of pending queries (queued or running) when the worker was stopped.
+     */
+    private void dropQueuedJobs(boolean log, int pending) {
+        final List<WorkerJob<?>> dropped = new ArrayList<>();
+        for (WorkerLane lane : lanes) {
+            dropped.addAll(lane.clear());
+        }
+        dropped.addAll(runQueue.clear());
+        for (WorkerJob<?> job : startingJobs) {
+            if (startingJobs.remove(job)) {
+                dropped.add(job);
+            }
+        }
+
+        final int interrupted = Math.max(pending - dropped.size(), 0);
+        final Map<String, Integer> droppedTypes = new TreeMap<>();
+        for (WorkerJob<?> job : dropped) {
+            droppedTypes.merge(job.getRunnable().getClass().getName(), 1, Integer::sum);
+            complete(job, null, new RejectedExecutionException(
+                    "The worker '" + name + "' was stopped before running the query"));
+        }
+
+        if (!log || (dropped.isEmpty() && interrupted == 0)) {
+            return;
+        }
+
+        PluginLogger.warning("The worker ''{0}'' was stopped before completing its queries: {1} queued queries were "
+                + "dropped {2}, and {3} running queries were interrupted.", name, dropped.size(), droppedTypes,
+                interrupted);
+    }
+
+    private static LongAdder[] newAdders(int count) {
+        final LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
     private void run() {
-        WorkerRunnable currentRunnable;
+        final ExecutorService executor = this.executor;
+        final Semaphore executorSlots = this.executorSlots;
+        final Thread workerThread = Thread.currentThread();
+        WorkerJob<?> currentJob;
+        long throttleEnd;
+
+        while (thread == workerThread && !Thread.interrupted()) {
+            try {
+                // In pool mode, jobs are only taken from the queue when a thread can run them, so
+                // that the priorities still apply when all the threads are busy.
+                // The queries reaching their deadline meanwhile are still dropped on time.
+                if (executorSlots != null) {
+                    runQueue.await(executorSlots::tryAcquire, Long.MAX_VALUE);
+                }
+
+                // Likewise, rate-limited workers wait for a permit before taking a job, so that
+                // the most urgent job is run when the permit is granted.
+                throttleEnd = rateLimiter != null ? awaitPermit() : 0;
+                currentJob = runQueue.take();
+            } catch (InterruptedException ex) {
+                break;
+            }
+
+            if (currentJob.getFuture().isCancelled()) {
+                drop(currentJob, new CancellationException("The query was cancelled"));
+                continue;
+            }
 
-        while (!Thread.interrupted()) {
-            synchronized (runQueue) {
+            final long now = System.nanoTime();
+            if (currentJob.isExpired(now)) {
+                drop(currentJob, new TimeoutException("The query was not started before its deadline"));
+                continue;
+            }
+
+            if (rateLimiter != null) {
+                rateLimiter.consume();
+                if (throttleEnd != 0 && currentJob.getScheduledTime() - throttleEnd < 0) {
+                    throttledQueries.increment();
+                }
+            }
+
+            recordStart(currentJob, now);
+
+            if (executor != null) {
+                // Until the job is started, it may be dropped by onDisable if the executor is shut
+                // down meanwhile: whoever removes it from the starting jobs owns it.
+                final WorkerJob<?> job = currentJob;
+                startingJobs.add(job);
                 try {
-                    while (runQueue.isEmpty()) {
-                        runQueue.wait();
+                    executor.execute(() -> {
+                        if (startingJobs.remove(job)) {
+                            execute(job);
+                        }
+                    });
+                } catch (RejectedExecutionException ex) {
+                    if (startingJobs.remove(job)) {
+                        drop(job, ex); // The executor was shut down: the worker is stopping.
                     }
-                } catch (InterruptedException ex) {
                     break;
                 }
-                currentRunnable = runQueue.pop();
+            } else {
+                execute(currentJob);
             }
+        }
+    }
 
-            try {
-                callbackManager.callback(currentRunnable, currentRunnable.run());
-            } catch (Throwable ex) {
-                callbackManager.callback(currentRunnable, null, ex);
+    /**
+     * Records the time a job waited before being started.
+     */
+    private void recordStart(WorkerJob<?> job, long now) {
+        waitTimes[job.getPriority().ordinal()].add(now - job.getScheduledTime());
+        metrics.getWaitTime().record(now - job.getScheduledTime());
+        startedQueries[job.getPriority().ordinal()].increment();
+    }
+
+    /**
+     * Waits until the rate limiter of this worker grants a permit. The permit is consumed once a
+     * job is taken.
+     *
+     * @return The time the permit was granted at, or {@code 0} if it was available right away.
+     * @throws InterruptedException if the thread was interrupted while waiting.
+     */
+    private long awaitPermit() throws InterruptedException {
+        long waitTime = rateLimiter.getWaitTime(System.nanoTime());
+        if (waitTime == 0) {
+            return 0;
+        }
+
+        throttled = true;
+        try {
+            while (!runQueue.await(() -> rateLimiter.getWaitTime(System.nanoTime()) == 0, waitTime)) {
+                waitTime = rateLimiter.getWaitTime(System.nanoTime());
+            }
+        } finally {
+            throttled = false;
+        }
+
+        final long now = System.nanoTime();
+        return now != 0 ? now : 1;
+    }
+
+    private void execute(WorkerJob<?> job) {
+        try {
+            runJob(job);
+        } finally {
+            releaseExecutorSlot();
+        }
+    }
+
+    /**
+     * Runs a job on the current thread and completes it with its result.
+     */
+    private <T> void runJob(WorkerJob<T> job) {
+        final WorkerRunnable<T> runnable = job.getRunnable();
+        final WorkerFuture<T> future = job.getFuture();
+        if (!future.start()) {
+            complete(job, null, new CancellationException("The query was cancelled"));
+            return;
+        }
+
+        final Worker previousWorker = currentWorker.get();
+        final long start = System.nanoTime();
+        T result = null;
+        Throwable exception = null;
+
+        currentWorker.set(this);
+        try {
+            result = runnable.run();
+        } catch (Throwable ex) {
+            exception = ex;
+        } finally {
+            currentWorker.set(previousWorker);
+            future.finish();
+            metrics.recordExecution(runnable.getClass(), System.nanoTime() - start);
+        }
+
+        if (job.isPeriodic() && exception == null) {
+            // The queue refuses the job once the worker started stopping and cleared its timers.
+            if (!future.isDone() && runQueue.reschedule(job)) {
+                return;
             }
-            runnables.remove(currentRunnable.getClass());
+            exception = new CancellationException("The worker '" + name + "' is stopping");
         }
+
+        complete(job, result, exception);
+    }
+
+    /**
+     * Completes the future of a job, and sends its result to the callback manager.
+     */
+    private <T> void complete(WorkerJob<T> job, T result, Throwable exception) {
+        callbackManager.callback(job.getFuture().takeCallback(), result, exception);
+        complete(job.getFuture(), result, exception);
+        release(job);
     }
 
-    private void internalSubmitQuery(WorkerRunnable runnable) {
+    /**
+     * Releases what a completed job was holding: its place among the pending jobs, and its lane.
+     */
+    private void release(WorkerJob<?> job) {
+        if (pendingJobs.decrementAndGet() == 0 && stopping) {
+            synchronized (drainLock) {
+                drainLock.notifyAll();
+            }
+        }
+
+        if (job.getLane() != null) {
+            final WorkerJob<?> next = job.getLane().leave();
+            if (next != null) {
+                runQueue.push(next);
+            }
+        }
+    }
+
+    /**
+     * Drops a job whose deadline was reached while it was queued.
+     */
+    private void expire(WorkerJob<?> job) {
+        complete(job, null, new TimeoutException("The query was not started before its deadline"));
+    }
+
+    /**
+     * Drops a job without running it, notifying its callback with the given exception.
+     */
+    private void drop(WorkerJob<?> job, Throwable reason) {
+        complete(job, null, reason);
+        releaseExecutorSlot();
+    }
+
+    private void releaseExecutorSlot() {
+        if (executorSlots != null) {
+            executorSlots.release();
+            runQueue.wakeUpConsumer();
+        }
+    }
+
+    @Override
+    public <T> WorkerFuture<T> submit(WorkerRunnable<T> runnable) {
+        return internalSubmitQuery(runnable, null, WorkerPriority.NORMAL, WorkerJob.NO_DEADLINE);
+    }
+
+    @Override
+    public <T> WorkerFuture<T> submit(WorkerRunnable<T> runnable, WorkerCallback<T> callback) {
+        return internalSubmitQuery(runnable, callback, WorkerPriority.NORMAL, WorkerJob.NO_DEADLINE);
+    }
+
+    @Override
+    public <T> WorkerFuture<T> submit(WorkerRunnable<T> runnable, WorkerCallback<T> callback,
+                                      WorkerPriority priority) {
+        return internalSubmitQuery(runnable, callback, priority, WorkerJob.NO_DEADLINE);
+    }
+
+    @Override
+    public <T> WorkerFuture<T> submit(WorkerRunnable<T> runnable, WorkerCallback<T> callback,
+                                      WorkerPriority priority, long timeout, TimeUnit unit) {
+        return internalSubmitQuery(runnable, callback, priority, System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    @Override
+    public <T> WorkerFuture<T> submitKeyed(Object key, WorkerRunnable<T> runnable) {
+        return submitKeyed(key, runnable, null);
+    }
+
+    @Override
+    public <T> WorkerFuture<T> submitKeyed(Object key, WorkerRunnable<T> runnable, WorkerCallback<T> callback) {
+        final WorkerJob<T> job = createJob(runnable, callback, WorkerPriority.NORMAL, WorkerJob.NO_DEADLINE);
+        if (stopping) {
+            rejectStopping(job);
+            return job.getFuture();
+        }
+
+        job.setLane(getLane(key));
+        if (job.getLane().enter(job)) {
+            enqueue(job);
+        }
+        return job.getFuture();
+    }
+
+    @Override
+    public <T> WorkerFuture<T> submitShared(Object key, WorkerRunnable<T> runnable, WorkerCallback<T> callback) {
+        return submitShared(key, runnable, callback, 0, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> WorkerFuture<T> submitShared(Object key, WorkerRunnable<T> runnable, WorkerCallback<T> callback,
+                                            long ttl, TimeUnit unit) {
+        final long now = System.nanoTime();
+        final SharedQuery[] created = new SharedQuery[1];
+        final SharedQuery shared = sharedQueries.compute(key, (k, existing) -> {
+            if (existing != null && !existing.isExpired(now)) {
+                existing.callers++;
+                return existing;
+            }
+            created[0] = new SharedQuery();
+            return created[0];
+        });
+
         attachRunnable(runnable);
-        synchronized (runQueue) {
-            runQueue.add(runnable);
-            runQueue.notify();
+
+        // Each caller, including the one starting the query, gets its own future, holding its own
+        // callback: cancelling it only detaches this caller, and the query is cancelled when no
+        // caller is left.
+        final WorkerFuture<T> future = new WorkerFuture<>(callback, cancelledFuture -> {
+            cancelCallback(cancelledFuture);
+            detachCaller(key, shared);
+        });
+        ((CompletableFuture<T>) shared.future).whenComplete((result, exception) -> {
+            callbackManager.callback(future.takeCallback(), result, exception);
+            complete(future, result, exception);
+        });
+
+        if (shared == created[0]) {
+            // The results kept for their TTL are only purged when a new shared query is started.
+            sharedQueries.values().removeIf(query -> query.isExpired(now));
+
+            final WorkerFuture<T> job =
+                    internalSubmitQuery(runnable, null, WorkerPriority.NORMAL, WorkerJob.NO_DEADLINE);
+            shared.job = job;
+            job.whenComplete((result, exception) -> {
+                if (exception == null && ttl > 0) {
+                    shared.expiry = System.nanoTime() + unit.toNanos(ttl);
+                } else {
+                    sharedQueries.remove(key, shared);
+                }
+                complete(shared.future, result, exception);
+            });
+
+            // All the callers may have detached before the job was known.
+            if (shared.abandoned) {
+                job.cancel(true);
+            }
         }
+
+        return future;
     }
 
-    private void internalSubmitQuery(WorkerRunnable runnable, WorkerCallback callback) {
-        callbackManager.setupCallback(runnable, callback);
-        internalSubmitQuery(runnable);
+    /**
+     * Detaches a caller from a shared query, and cancels the query if it was the last one.
+     */
+    private void detachCaller(Object key, SharedQuery shared) {
+        // The callers are counted under the lock of the key in the map, like they are attached.
+        sharedQueries.compute(key, (k, existing) -> {
+            if (--shared.callers == 0 && !shared.future.isDone()) {
+                shared.abandoned = true;
+                return existing == shared ? null : existing;
+            }
+            return existing;
+        });
+
+        final WorkerFuture<?> job = shared.job;
+        if (shared.abandoned && job != null) {
+            job.cancel(true);
+        }
+    }
+
+    private static <T> void complete(CompletableFuture<? super T> future, T result, Throwable exception) {
+        if (exception == null) {
+            future.complete(result);
+        } else {
+            future.completeExceptionally(exception);
+        }
     }
 
-    private <T> Future<T> internalSubmitToMainThread(Callable<T> callable) {
+    @Override
+    public <T> CompletableFuture<T> queryMainThread(Callable<T> callable) {
         if (mainThreadExecutor != null) {
             return mainThreadExecutor.submit(callable);
         }
         return null;
     }
 
+    @Override
+    public Executor getExecutor() {
+        return executorView;
+    }
+
+    @Override
+    public <T> WorkerFuture<T> schedule(WorkerRunnable<T> runnable, long delay, TimeUnit unit) {
+        return internalSchedule(runnable, null, unit.toNanos(delay), 0);
+    }
+
+    @Override
+    public <T> WorkerFuture<T> schedule(WorkerRunnable<T> runnable, WorkerCallback<T> callback,
+                                        long delay, TimeUnit unit) {
+        return internalSchedule(runnable, callback, unit.toNanos(delay), 0);
+    }
+
+    @Override
+    public <T> WorkerFuture<T> scheduleAtFixedRate(WorkerRunnable<T> runnable, long initialDelay, long period,
+                                                   TimeUnit unit) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("The period of a periodic query must be positive");
+        }
+        return internalSchedule(runnable, null, unit.toNanos(initialDelay), unit.toNanos(period));
+    }
+
+    private void submitTask(Runnable task) {
+        submit(new WorkerRunnable<Void>() {
+            @Override
+            public Void run() {
+                task.run();
+                return null;
+            }
+        });
+    }
+
+    private <T> WorkerFuture<T> internalSubmitQuery(WorkerRunnable<T> runnable, WorkerCallback<T> callback,
+                                                    WorkerPriority priority, long deadline) {
+        final WorkerJob<T> job = createJob(runnable, callback, priority, deadline);
+        enqueue(job);
+        return job.getFuture();
+    }
+
+    private <T> WorkerFuture<T> internalSchedule(WorkerRunnable<T> runnable, WorkerCallback<T> callback,
+                                                 long delay, long period) {
+        prepareJob(runnable);
+        final WorkerJob<T> job = new WorkerJob<>(runnable, callback, System.nanoTime() + Math.max(delay, 0), period,
+                this::onCancelled);
+
+        if (stopping || !runQueue.schedule(job)) {
+            rejectStopping(job);
+        }
+        return job.getFuture();
+    }
+
+    private <T> WorkerJob<T> createJob(WorkerRunnable<T> runnable, WorkerCallback<T> callback,
+                                       WorkerPriority priority, long deadline) {
+        prepareJob(runnable);
+        return new WorkerJob<>(runnable, callback, priority, deadline, this::onCancelled);
+    }
+
+    private void prepareJob(WorkerRunnable<?> runnable) {
+        attachRunnable(runnable);
+        pendingJobs.incrementAndGet();
+    }
+
+    /**
+     * Called when the future of a job is cancelled. A queued job gives its place in the queue back
+     * right away, and is skipped when the worker reaches it. The jobs which are not queued (running,
+     * scheduled but not due yet, or waiting in their lane) are released when the worker reaches
+     * them.
+     */
+    private void onCancelled(WorkerJob<?> job) {
+        cancelCallback(job.getFuture());
+        if (runQueue.remove(job)) {
+            release(job);
+        }
+    }
+
+    /**
+     * Notifies the callback of a cancelled future right away.
+     */
+    private <T> void cancelCallback(WorkerFuture<T> future) {
+        callbackManager.callback(future.takeCallback(), null, new CancellationException("The query was cancelled"));
+    }
+
+    /**
+     * Adds a job to the run queue, applying the rejection policy if the queue is full.
+     */
+    private void enqueue(WorkerJob<?> job) {
+        if (stopping) {
+            rejectStopping(job);
+            return;
+        }
+
+        final WorkerJob<?> rejectedJob;
+        try {
+            rejectedJob = runQueue.offer(job);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            reject(job);
+            return;
+        }
+
+        if (rejectedJob == job && runQueue.getRejectionPolicy() == WorkerRejectionPolicy.CALLER_RUNS
+                && !Bukkit.isPrimaryThread()) {
+            recordStart(job, System.nanoTime());
+            runJob(job);
+        } else if (rejectedJob != null) {
+            reject(rejectedJob);
+        }
+    }
+
+    /**
+     * Returns the serial lane a key is hashed onto.
+     */
+    private WorkerLane getLane(Object key) {
+        final int hash = key.hashCode();
+        return lanes[Math.floorMod(hash ^ (hash >>> 16), lanes.length)];
+    }
+
+    /**
+     * Rejects a job that could not be queued because the queue was full.
+     */
+    private void reject(WorkerJob<?> job) {
+        rejectedQueries.increment();
+        complete(job, null, new RejectedExecutionException("The queue of the worker '" + name + "' is full"));
+    }
+
+    /**
+     * Rejects a job submitted while the worker is stopping.
+     */
+    private void rejectStopping(WorkerJob<?> job) {
+        rejectedQueries.increment();
+        complete(job, null, new RejectedExecutionException("The worker '" + name + "' is stopping"));
+    }
+
     private Thread createThread() {
         return new Thread(getName()) {
             @Override
@@ -199,16 +1037,147 @@ public abstract class Worker extends QuartzComponent {
         };
     }
 
+    /**
+     * Creates the executor running the queries, or {@code null} if they are run by the worker's
+     * thread itself.
+     */
+    private ExecutorService createExecutor() {
+        switch (mode) {
+            case POOL:
+                return createPool();
+
+            case VIRTUAL_THREADS:
+                if (WorkerThreads.isVirtualThreadsSupported()) {
+                    return WorkerThreads.newVirtualThreadPerTaskExecutor(getName());
+                }
+
+                PluginLogger.info("Virtual threads are not supported by this Java version; "
+                        + "the worker ''{0}'' will use a dedicated thread instead.", name);
+                return null;
+
+            default:
+                return null;
+        }
+    }
+
+    private ForkJoinPool createPool() {
+        final AtomicInteger threadsCount = new AtomicInteger();
+        return new ForkJoinPool(poolSize, forkJoinPool -> {
+            final ForkJoinWorkerThread poolThread =
+                    ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            poolThread.setName(getName() + "-" + threadsCount.incrementAndGet());
+            return poolThread;
+        }, null, true);
+    }
+
     private void attachRunnable(WorkerRunnable runnable) {
         if (runnable.getWorker() != null && runnable.getWorker() != this) {
             throw new IllegalArgumentException("This runnable is already attached to another worker");
         }
         runnable.setWorker(this);
-        runnables.put(runnable.getClass(), this);
     }
 
+    @Override
     public String getName() {
         return QuartzLib.getPlugin().getName() + "-" + name;
     }
 
+    /**
+     * Returns the average time the queries of the given priority waited in the queue before being
+     * started, since this worker was created. Dropped queries are not counted.
+     *
+     * @param priority The priority.
+     * @param unit     The unit of the returned time.
+     * @return The average waiting time, or {@code 0} if no query of this priority was started.
+     */
+    public long getAverageWaitTime(WorkerPriority priority, TimeUnit unit) {
+        final long count = startedQueries[priority.ordinal()].sum();
+        if (count == 0) {
+            return 0;
+        }
+        return unit.convert(waitTimes[priority.ordinal()].sum() / count, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the number of queries waiting to be started.
+     *
+     * @return The number of queued queries.
+     */
+    public int getQueueSize() {
+        return runQueue.size();
+    }
+
+    /**
+     * Returns the number of queries rejected or dropped because the queue of this worker was full,
+     * since this worker was created.
+     *
+     * @return The number of rejected queries.
+     */
+    public long getRejectedCount() {
+        return rejectedQueries.sum();
+    }
+
+    /**
+     * Returns the number of queries currently held back by the
+     * {@link WorkerAttributes#permitsPerSecond() rate limit} of this worker, i.e. the number of
+     * queued queries if the worker is waiting for a permit, and {@code 0} otherwise.
+     *
+     * @return The number of throttled queries.
+     */
+    public int getThrottledQueueSize() {
+        return throttled ? runQueue.size() : 0;
+    }
+
+    /**
+     * Returns the number of queries which had to wait for a permit of the
+     * {@link WorkerAttributes#permitsPerSecond() rate limit} of this worker before being started,
+     * since this worker was created.
+     *
+     * @return The number of throttled queries.
+     */
+    public long getThrottledCount() {
+        return throttledQueries.sum();
+    }
+
+    /**
+     * Returns the metrics recorded by this worker since its creation: queue depth, waiting times,
+     * execution times per runnable class and callbacks lag.
+     *
+     * @return The metrics.
+     */
+    public WorkerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the mode this worker runs its queries in.
+     *
+     * @return The mode.
+     */
+    public WorkerMode getMode() {
+        return mode;
+    }
+
+    /**
+     * A query shared by all the callers submitting it with the same key.
+     */
+    private static final class SharedQuery {
+        private final CompletableFuture<Object> future = new CompletableFuture<>();
+        private volatile long expiry = WorkerJob.NO_DEADLINE;
+        private volatile WorkerFuture<?> job;
+        private volatile boolean abandoned = false;
+
+        /**
+         * The number of callers attached to this query, and not cancelled. Only updated while
+         * computing the entry of the key in the shared queries map.
+         */
+        private int callers = 1;
+
+        /**
+         * Checks if the result of this query must not be reused anymore.
+         */
+        private boolean isExpired(long now) {
+            return expiry != WorkerJob.NO_DEADLINE && now - expiry > 0;
+        }
+    }
 }
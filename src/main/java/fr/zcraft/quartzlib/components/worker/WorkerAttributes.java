@@ -58,4 +58,97 @@ public @interface WorkerAttributes {
      * @return If the Worker queries the main thread;
      */
     boolean queriesMainThread() default false;
+
+    /**
+     * Defines how much time, in milliseconds, the callbacks of this Worker may use on the main
+     * thread at each tick.
+     * Pending callbacks are delivered in batches, every tick, until this budget (or the budget
+     * shared by all the workers, see {@link Worker#setMainThreadTimeBudget(long)}) is spent. At
+     * least one callback is delivered per tick, whatever the budget.
+     *
+     * @return The per-tick time budget of the callbacks, in milliseconds.
+     */
+    long callbacksTimeBudget() default WorkerCallbackManager.DEFAULT_TIME_BUDGET;
+
+    /**
+     * Defines how the Worker runs its queries.
+     * See {@link WorkerMode} for the available modes.
+     *
+     * @return The execution mode of the worker.
+     */
+    WorkerMode mode() default WorkerMode.DEDICATED_THREAD;
+
+    /**
+     * Defines the maximal number of threads running the queries of this Worker.
+     * If greater than one, a worker in {@link WorkerMode#DEDICATED_THREAD} mode runs in
+     * {@link WorkerMode#POOL} mode instead. In pool mode, a value lesser than two uses as many
+     * threads as available processors. This value is ignored by the
+     * {@link WorkerMode#VIRTUAL_THREADS} mode.
+     *
+     * @return The number of threads of the worker.
+     */
+    int threads() default 1;
+
+    /**
+     * Defines the maximal number of queries waiting in the queue of this Worker.
+     * When the queue is full, new queries are handled according to the
+     * {@link #rejectionPolicy() rejection policy}. A warning is logged when the queue gets close
+     * to its capacity.
+     *
+     * @return The capacity of the queue, or {@code 0} for an unbounded queue.
+     */
+    int capacity() default 0;
+
+    /**
+     * Defines what happens to the queries submitted while the queue is full.
+     * Only used if the {@link #capacity() capacity} is set.
+     *
+     * @return The rejection policy of the worker.
+     */
+    WorkerRejectionPolicy rejectionPolicy() default WorkerRejectionPolicy.FAIL;
+
+    /**
+     * Defines the number of serial lanes of this Worker.
+     * Queries submitted with a key are hashed onto one of these lanes; the queries of a lane are run
+     * one at a time, in submission order, while different lanes progress in parallel (in
+     * {@link WorkerMode#POOL} or {@link WorkerMode#VIRTUAL_THREADS} mode). More lanes mean fewer
+     * unrelated keys waiting for each other.
+     *
+     * @return The number of serial lanes of the worker.
+     */
+    int lanes() default 16;
+
+    /**
+     * Defines how long, in milliseconds, this Worker may take to complete its queued queries when
+     * it is stopped.
+     * If greater than zero, a stopping worker stops accepting new queries, and the main thread
+     * waits up to this time for the queued queries to complete (running their main-thread queries
+     * meanwhile). The queries still queued after this time are dropped, the running ones are
+     * interrupted, and all the pending callbacks are then called synchronously. What was dropped
+     * is logged.
+     * If zero, the worker is interrupted right away, and its queued queries are not run: their
+     * futures are completed with a {@link java.util.concurrent.RejectedExecutionException}.
+     *
+     * @return The shutdown timeout of the worker, in milliseconds.
+     */
+    long shutdownTimeout() default 0;
+
+    /**
+     * Defines the maximal rate at which this Worker starts its queries, in queries per second.
+     * The rate is enforced with a token bucket holding up to {@link #burst()} permits: when no
+     * permit is left, the worker waits for the next one before starting its next query. This is
+     * meant for workers calling external services with rate limits, so that their queries do not
+     * have to sleep themselves.
+     *
+     * @return The maximal rate of the worker, or {@code 0} for no limit.
+     */
+    double permitsPerSecond() default 0;
+
+    /**
+     * Defines how many queries this Worker may start at once, after a period of inactivity, when
+     * its rate is {@link #permitsPerSecond() limited}.
+     *
+     * @return The size of the token bucket of the worker.
+     */
+    int burst() default 1;
 }
@@ -30,8 +30,19 @@
 
 package fr.zcraft.quartzlib.components.worker;
 
+import java.util.concurrent.CancellationException;
+
 public interface WorkerCallback<T> {
     void finished(T result);
 
     void errored(Throwable exception);
+
+    /**
+     * Called instead of {@link #finished(Object)} or {@link #errored(Throwable)} if the query was
+     * cancelled through its {@link WorkerFuture}.
+     * By default, calls {@link #errored(Throwable)} with a {@link CancellationException}.
+     */
+    default void cancelled() {
+        errored(new CancellationException("The query was cancelled"));
+    }
 }
@@ -30,85 +30,96 @@
 
 package fr.zcraft.quartzlib.components.worker;
 
-import fr.zcraft.quartzlib.core.QuartzLib;
-import java.util.ArrayDeque;
-import java.util.HashMap;
-import org.bukkit.Bukkit;
-import org.bukkit.scheduler.BukkitTask;
+import fr.zcraft.quartzlib.tools.PluginLogger;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
 
-class WorkerCallbackManager implements Runnable {
-    private static final int WATCH_LOOP_DELAY = 5;
+/**
+ * Delivers the results of the runnables of a worker to their callbacks, on the main thread.
+ *
+ * <p>The callbacks are posted to the lane of the worker in the {@link WorkerTickDispatcher}, which
+ * runs them at every tick, until the time budget of the worker (or the shared budget of all the
+ * workers) is spent.</p>
+ */
+class WorkerCallbackManager {
+    /**
+     * The time budget used if the worker does not define one.
+     */
+    static final long DEFAULT_TIME_BUDGET = 5;
 
-    private final HashMap<WorkerRunnable, WorkerRunnableInfo> callbacks;
-    private final ArrayDeque<WorkerRunnableInfo> callbackQueue;
+    private final WorkerTickLane lane;
 
     private final String name;
-
-    private BukkitTask selfTask;
-
-    public WorkerCallbackManager(String name) {
-        callbacks = new HashMap<>();
-        callbackQueue = new ArrayDeque<>();
+    private final WorkerHistogram lagHistogram;
+
+    /**
+     * Creates a new callback manager.
+     *
+     * @param name         The name of the worker owning this manager.
+     * @param timeBudget   The time, in milliseconds, callbacks may use on the main thread at each
+     *                     tick.
+     * @param lagHistogram The histogram recording the time the callbacks wait before being called.
+     */
+    public WorkerCallbackManager(String name, long timeBudget, WorkerHistogram lagHistogram) {
+        lane = new WorkerTickLane(name, TimeUnit.MILLISECONDS.toNanos(Math.max(timeBudget, 0)));
         this.name = name;
+        this.lagHistogram = lagHistogram;
     }
 
     public void init() {
-        selfTask = Bukkit.getScheduler().runTaskTimer(QuartzLib.getPlugin(), this, 0, WATCH_LOOP_DELAY);
+        lane.enable();
     }
 
-    public void setupCallback(WorkerRunnable runnable, WorkerCallback callback) {
-        synchronized (callbacks) {
-            callbacks.put(runnable, new WorkerRunnableInfo(callback));
-        }
-    }
-
-    public <T> void callback(WorkerRunnable<T> runnable, T result) {
-        callback(runnable, result, null);
-    }
-
-    public <T> void callback(WorkerRunnable<T> runnable, T result, Throwable exception) {
-        WorkerRunnableInfo<T> runnableInfo;
-        synchronized (callbacks) {
-            runnableInfo = callbacks.get(runnable);
-        }
-        if (runnableInfo == null) {
+    /**
+     * Sends the result of a query to its callback, which is called on the main thread.
+     *
+     * <p>The callbacks are held by the {@link WorkerFuture futures} returned to the callers (see
+     * {@link WorkerFuture#takeCallback()}), not by the runnables: several submissions of the same
+     * runnable instance each notify their own callback.</p>
+     *
+     * @param callback  The callback, or {@code null} to do nothing.
+     * @param result    The result of the query.
+     * @param exception The exception thrown by the query, or {@code null}.
+     * @param <T>       The type of the query's result.
+     */
+    public <T> void callback(WorkerCallback<T> callback, T result, Throwable exception) {
+        if (callback == null) {
             return;
         }
+
+        final WorkerRunnableInfo<T> runnableInfo = new WorkerRunnableInfo<>(callback);
         runnableInfo.setRunnableException(exception);
         runnableInfo.setResult(result);
+        runnableInfo.setCompletionTime(System.nanoTime());
 
-        enqueueCallback(runnableInfo);
+        lane.post(() -> runCallback(runnableInfo));
     }
 
-    public void exit() {
-        if (selfTask != null) {
-            selfTask.cancel();
-        }
+    /**
+     * Runs all the queued callbacks on the calling thread, whatever the time budget.
+     */
+    public void flush() {
+        lane.runAll();
     }
 
-    private void enqueueCallback(WorkerRunnableInfo runnableInfo) {
-        synchronized (callbackQueue) {
-            callbackQueue.add(runnableInfo);
-        }
+    public void exit() {
+        lane.disable();
     }
 
-    @Override
-    public void run() {
-        WorkerRunnableInfo currentRunnableInfo;
-        synchronized (callbackQueue) {
-            if (callbackQueue.isEmpty()) {
-                return;
-            }
-            currentRunnableInfo = callbackQueue.pop();
+    private void runCallback(WorkerRunnableInfo runnableInfo) {
+        lagHistogram.record(System.nanoTime() - runnableInfo.getCompletionTime());
+        try {
+            runnableInfo.runCallback();
+        } catch (Throwable ex) {
+            PluginLogger.error("Exception thrown by a callback of the worker ''{0}''", ex, name);
         }
-
-        currentRunnableInfo.runCallback();
     }
 
     private class WorkerRunnableInfo<T> {
         private final WorkerCallback<T> callback;
         private T result;
         private Throwable runnableException;
+        private long completionTime;
 
         public WorkerRunnableInfo(WorkerCallback callback) {
             this.callback = callback;
@@ -120,7 +131,9 @@ class WorkerCallbackManager implements Runnable {
         }
 
         public void runCallback() {
-            if (runnableCrashed()) {
+            if (runnableException instanceof CancellationException) {
+                callback.cancelled();
+            } else if (runnableCrashed()) {
                 callback.errored(runnableException);
             } else {
                 callback.finished(result);
@@ -139,6 +152,14 @@ class WorkerCallbackManager implements Runnable {
             this.runnableException = runnableException;
         }
 
+        public long getCompletionTime() {
+            return completionTime;
+        }
+
+        public void setCompletionTime(long completionTime) {
+            this.completionTime = completionTime;
+        }
+
         public boolean runnableCrashed() {
             return this.runnableException != null;
         }
@@ -0,0 +1,123 @@
+/*
+ * Copyright or © or Copr. QuartzLib contributors (2015 - 2020)
+ *
+ * This software is governed by the CeCILL-B license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-B
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-B license and that you accept its terms.
+ */
+
+package fr.zcraft.quartzlib.components.worker;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * A cancellable handle to a query submitted to a {@link Worker}, completed with its result.
+ *
+ * <p>Cancelling a query still waiting in the queue of the worker is constant-time: the query gives
+ * its place in the {@link WorkerAttributes#capacity() capacity} of the worker back right away, and
+ * is skipped by the worker when its turn comes. Cancelling a running
+ * query with {@code mayInterruptIfRunning} set interrupts the thread running it; the query should
+ * stop cooperatively, by checking {@link Thread#isInterrupted()} or catching
+ * {@link InterruptedException}. Either way, the future is completed right away with a
+ * {@link java.util.concurrent.CancellationException}, and the callback of the query receives
+ * {@link WorkerCallback#cancelled()} instead of a result.</p>
+ *
+ * @param <T> The type of the query's result.
+ */
+public class WorkerFuture<T> extends CompletableFuture<T> {
+    private final AtomicReference<WorkerCallback<T>> callback;
+    private final Consumer<? super WorkerFuture<T>> cancellationListener;
+    private Thread runner;
+
+    /**
+     * Creates a new future.
+     *
+     * @param callback             The callback of the caller this future was returned to, or
+     *                             {@code null}.
+     * @param cancellationListener Called once with this future if it is cancelled.
+     */
+    WorkerFuture(WorkerCallback<T> callback, Consumer<? super WorkerFuture<T>> cancellationListener) {
+        this.callback = new AtomicReference<>(callback);
+        this.cancellationListener = cancellationListener;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        // Unlike super.cancel(), which also returns true if the future was already cancelled, this
+        // only succeeds for the call completing the future: the listener is notified once.
+        if (!completeExceptionally(new CancellationException())) {
+            return isCancelled();
+        }
+
+        synchronized (this) {
+            if (mayInterruptIfRunning && runner != null) {
+                runner.interrupt();
+            }
+        }
+        cancellationListener.accept(this);
+        return true;
+    }
+
+    /**
+     * Removes the callback of this future, so that it is notified once, either with the result or
+     * with the cancellation, whichever comes first.
+     *
+     * @return The callback, or {@code null} if there is none or if it was already taken.
+     */
+    WorkerCallback<T> takeCallback() {
+        return callback.getAndSet(null);
+    }
+
+    /**
+     * Marks the query as running on the current thread.
+     *
+     * @return {@code false} if the query was cancelled, and must not be run.
+     */
+    synchronized boolean start() {
+        if (isDone()) {
+            return false;
+        }
+
+        runner = Thread.currentThread();
+        return true;
+    }
+
+    /**
+     * Marks the query as not running anymore. If the query was cancelled while running, the
+     * interruption of the current thread is cleared, so that it does not leak to the next query.
+     */
+    void finish() {
+        synchronized (this) {
+            runner = null;
+        }
+
+        if (isCancelled()) {
+            Thread.interrupted();
+        }
+    }
+}
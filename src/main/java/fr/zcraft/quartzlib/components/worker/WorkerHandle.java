@@ -0,0 +1,251 @@
+/*
+ * Copyright or © or Copr. QuartzLib contributors (2015 - 2020)
+ *
+ * This software is governed by the CeCILL-B license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-B
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-B license and that you accept its terms.
+ */
+
+package fr.zcraft.quartzlib.components.worker;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A handle to submit queries to a {@link Worker}.
+ *
+ * <p>Every worker is a handle to itself; a handle to a running worker can also be retrieved using
+ * {@link Worker#getHandle(Class)}. Unlike the static {@code Worker.submitQuery} methods, handles
+ * do not need to inspect the call stack to find the worker the queries are submitted to.</p>
+ *
+ * <p>All the submission methods return a {@link WorkerFuture} completed with the result of the
+ * query, <strong>on the thread that ran it</strong>, and which can be used to cancel the query.
+ * To continue on the main thread, use the asynchronous methods of the future with
+ * {@link Worker#getMainThreadExecutor()}; to continue on the worker, use its
+ * {@link #getExecutor() executor}:</p>
+ *
+ * <pre>{@code
+ * worker.submit(loadProfile)
+ *       .thenApplyAsync(profile -> updateInventory(player, profile), Worker.getMainThreadExecutor())
+ *       .thenAcceptAsync(changes -> saveChanges(changes), worker.getExecutor());
+ * }</pre>
+ *
+ * <p>Callbacks, when given, are still called on the main thread.</p>
+ */
+public interface WorkerHandle {
+    /**
+     * Returns the name of the worker, as used for its threads.
+     *
+     * @return The name of the worker.
+     */
+    String getName();
+
+    /**
+     * Submits a query to the worker.
+     *
+     * @param runnable The query.
+     * @param <T>      The type of the query's result.
+     * @return A cancellable future completed with the result of the query.
+     */
+    <T> WorkerFuture<T> submit(WorkerRunnable<T> runnable);
+
+    /**
+     * Submits a query to the worker.
+     *
+     * @param runnable The query.
+     * @param callback The callback, called on the main thread with the result of the query.
+     * @param <T>      The type of the query's result.
+     * @return A cancellable future completed with the result of the query.
+     */
+    <T> WorkerFuture<T> submit(WorkerRunnable<T> runnable, WorkerCallback<T> callback);
+
+    /**
+     * Submits a query to the worker, with a priority.
+     *
+     * @param runnable The query.
+     * @param callback The callback, called on the main thread with the result of the query. May be
+     *                 {@code null}.
+     * @param priority The priority of the query.
+     * @param <T>      The type of the query's result.
+     * @return A cancellable future completed with the result of the query.
+     */
+    <T> WorkerFuture<T> submit(WorkerRunnable<T> runnable, WorkerCallback<T> callback, WorkerPriority priority);
+
+    /**
+     * Submits a query to the worker, with a priority and a deadline.
+     * If the query cannot be started before the deadline, it is dropped and the callback receives a
+     * {@link TimeoutException}.
+     *
+     * @param runnable The query.
+     * @param callback The callback, called on the main thread with the result of the query. May be
+     *                 {@code null}.
+     * @param priority The priority of the query.
+     * @param timeout  The maximal time the query may wait before being started.
+     * @param unit     The unit of the {@code timeout}.
+     * @param <T>      The type of the query's result.
+     * @return A cancellable future completed with the result of the query, or completed
+     *         exceptionally with a {@link TimeoutException} if the deadline was missed.
+     */
+    <T> WorkerFuture<T> submit(WorkerRunnable<T> runnable, WorkerCallback<T> callback, WorkerPriority priority,
+                               long timeout, TimeUnit unit);
+
+    /**
+     * Submits a query to be run after all the previously submitted queries with the same key.
+     *
+     * <p>The keyed queries are hashed onto a fixed set of serial
+     * {@link WorkerAttributes#lanes() lanes}: the queries of a given key are run one at a time, in
+     * submission order, while the queries of other keys progress in parallel (if the worker runs
+     * its queries in parallel). Unrelated keys hashed onto the same lane wait for each other.
+     * Queries waiting for a previous query of their lane are not counted in the
+     * {@link WorkerAttributes#capacity() capacity} of the worker.</p>
+     *
+     * @param key      The key of the query, e.g. the UUID of a player.
+     * @param runnable The query.
+     * @param <T>      The type of the query's result.
+     * @return A cancellable future completed with the result of the query.
+     */
+    <T> WorkerFuture<T> submitKeyed(Object key, WorkerRunnable<T> runnable);
+
+    /**
+     * Submits a query to be run after all the previously submitted queries with the same key.
+     * See {@link #submitKeyed(Object, WorkerRunnable)}.
+     *
+     * @param key      The key of the query, e.g. the UUID of a player.
+     * @param runnable The query.
+     * @param callback The callback, called on the main thread with the result of the query.
+     * @param <T>      The type of the query's result.
+     * @return A cancellable future completed with the result of the query.
+     */
+    <T> WorkerFuture<T> submitKeyed(Object key, WorkerRunnable<T> runnable, WorkerCallback<T> callback);
+
+    /**
+     * Submits a query, or attaches the caller to the running query with the same key (single
+     * flight).
+     *
+     * <p>If a query submitted with the same key is queued or running, the given runnable is not run:
+     * the caller shares the execution of the running query, and its callback and future receive its
+     * result. Otherwise, the runnable is submitted like with
+     * {@link #submit(WorkerRunnable, WorkerCallback)}. All the queries sharing a key must return
+     * the same type of result.</p>
+     *
+     * <p>Cancelling the returned future only detaches the caller, whether it started the query or
+     * not: the other callers still receive the result. The query itself is cancelled (and
+     * interrupted if running) once all its callers cancelled their future.</p>
+     *
+     * @param key      The key identifying the query, e.g. {@code "leaderboard"}.
+     * @param runnable The query.
+     * @param callback The callback, called on the main thread with the result of the shared query.
+     * @param <T>      The type of the query's result.
+     * @return A cancellable future completed with the result of the shared query.
+     */
+    <T> WorkerFuture<T> submitShared(Object key, WorkerRunnable<T> runnable, WorkerCallback<T> callback);
+
+    /**
+     * Submits a query, or attaches the caller to the running or recently completed query with the
+     * same key.
+     *
+     * <p>Like {@link #submitShared(Object, WorkerRunnable, WorkerCallback)}, but the result of a
+     * successful query is also reused by the callers submitting the same key during {@code ttl}
+     * after its completion. Failures are never reused.</p>
+     *
+     * @param key      The key identifying the query, e.g. {@code "leaderboard"}.
+     * @param runnable The query.
+     * @param callback The callback, called on the main thread with the result of the shared query.
+     * @param ttl      How long the result of the query is reused after its completion.
+     * @param unit     The unit of the {@code ttl}.
+     * @param <T>      The type of the query's result.
+     * @return A cancellable future completed with the result of the shared query.
+     */
+    <T> WorkerFuture<T> submitShared(Object key, WorkerRunnable<T> runnable, WorkerCallback<T> callback,
+                                     long ttl, TimeUnit unit);
+
+    /**
+     * Schedules a query to be run by the worker after a delay.
+     *
+     * <p>The query waits in the worker's own timer structure, and is then queued like any other
+     * query: no Bukkit task nor extra thread is involved.</p>
+     *
+     * @param runnable The query.
+     * @param delay    The time before the query may be started.
+     * @param unit     The unit of the {@code delay}.
+     * @param <T>      The type of the query's result.
+     * @return A cancellable future completed with the result of the query.
+     */
+    <T> WorkerFuture<T> schedule(WorkerRunnable<T> runnable, long delay, TimeUnit unit);
+
+    /**
+     * Schedules a query to be run by the worker after a delay.
+     * See {@link #schedule(WorkerRunnable, long, TimeUnit)}.
+     *
+     * @param runnable The query.
+     * @param callback The callback, called on the main thread with the result of the query. May be
+     *                 {@code null}.
+     * @param delay    The time before the query may be started.
+     * @param unit     The unit of the {@code delay}.
+     * @param <T>      The type of the query's result.
+     * @return A cancellable future completed with the result of the query.
+     */
+    <T> WorkerFuture<T> schedule(WorkerRunnable<T> runnable, WorkerCallback<T> callback, long delay, TimeUnit unit);
+
+    /**
+     * Schedules a query to be run periodically by the worker, first after {@code initialDelay},
+     * then every {@code period}, each run being scheduled one period after the previous scheduled
+     * run.
+     *
+     * <p>If a run takes longer than the period, the next one starts late: runs of a periodic query
+     * never overlap. The periodic query stops when its future is cancelled, when a run throws an
+     * exception, or when the worker stops.</p>
+     *
+     * @param runnable     The query.
+     * @param initialDelay The time before the first run.
+     * @param period       The time between the starts of two runs. Must be positive.
+     * @param unit         The unit of the {@code initialDelay} and {@code period}.
+     * @param <T>          The type of the query's result.
+     * @return A future which is never completed normally: it can be cancelled to stop the periodic
+     *         query, and is completed exceptionally if a run fails or if the worker stops.
+     * @throws IllegalArgumentException if the period is not positive.
+     */
+    <T> WorkerFuture<T> scheduleAtFixedRate(WorkerRunnable<T> runnable, long initialDelay, long period, TimeUnit unit);
+
+    /**
+     * Submits a query to the main thread, on behalf of this worker.
+     *
+     * @param callable The query to run on the main thread.
+     * @param <T>      The type of the query's result.
+     * @return A future completed with the result of the query, or {@code null} if the worker does
+     *         not {@link WorkerAttributes#queriesMainThread() query the main thread}.
+     */
+    <T> CompletableFuture<T> queryMainThread(Callable<T> callable);
+
+    /**
+     * Returns an executor submitting the tasks it receives to the worker, as queries.
+     *
+     * @return The executor.
+     */
+    Executor getExecutor();
+}
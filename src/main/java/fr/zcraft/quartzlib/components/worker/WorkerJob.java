@@ -0,0 +1,227 @@
+/*
+ * Copyright or © or Copr. QuartzLib contributors (2015 - 2020)
+ *
+ * This software is governed by the CeCILL-B license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-B
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-B license and that you accept its terms.
+ */
+
+package fr.zcraft.quartzlib.components.worker;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * A query queued in a worker, with its scheduling data.
+ *
+ * <p>Jobs are ordered by decreasing priority, then by submission order. Scheduled jobs are kept
+ * apart by the queue until their {@link #getScheduledTime() scheduled time}.</p>
+ *
+ * @param <T> The type of the result of the job.
+ */
+final class WorkerJob<T> implements Comparable<WorkerJob<?>> {
+    /**
+     * The deadline of the jobs without deadline.
+     */
+    static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    private static final AtomicLong sequenceGenerator = new AtomicLong();
+
+    private final WorkerRunnable<T> runnable;
+    private final WorkerFuture<T> future;
+    private final WorkerPriority priority;
+    private final long deadline;
+    private final long submissionTime;
+    private final long sequence;
+    private final boolean scheduled;
+    private final long period;
+    private final AtomicBoolean queued = new AtomicBoolean(false);
+    private long scheduledTime;
+    private WorkerLane lane;
+
+    /**
+     * Creates a new job.
+     *
+     * @param runnable             The runnable to execute.
+     * @param callback             The callback of the job, or {@code null}.
+     * @param priority             The priority of the job.
+     * @param deadline             The {@link System#nanoTime()} after which the job must not be
+     *                             started anymore, or {@link #NO_DEADLINE}.
+     * @param cancellationListener Called once with the job if it is cancelled.
+     */
+    WorkerJob(WorkerRunnable<T> runnable, WorkerCallback<T> callback, WorkerPriority priority, long deadline,
+              Consumer<? super WorkerJob<T>> cancellationListener) {
+        this.runnable = runnable;
+        this.future = new WorkerFuture<>(callback, future -> cancellationListener.accept(this));
+        this.priority = priority;
+        this.deadline = deadline;
+        this.submissionTime = System.nanoTime();
+        this.sequence = sequenceGenerator.getAndIncrement();
+        this.scheduled = false;
+        this.period = 0;
+        this.scheduledTime = submissionTime;
+    }
+
+    /**
+     * Creates a new scheduled job, with a normal priority.
+     *
+     * @param runnable             The runnable to execute.
+     * @param callback             The callback of the job, or {@code null}.
+     * @param scheduledTime        The {@link System#nanoTime()} before which the job must not be
+     *                             started.
+     * @param period               The time between two starts of the job, in nanoseconds, or
+     *                             {@code 0} if it is only run once.
+     * @param cancellationListener Called once with the job if it is cancelled.
+     */
+    WorkerJob(WorkerRunnable<T> runnable, WorkerCallback<T> callback, long scheduledTime, long period,
+              Consumer<? super WorkerJob<T>> cancellationListener) {
+        this.runnable = runnable;
+        this.future = new WorkerFuture<>(callback, future -> cancellationListener.accept(this));
+        this.priority = WorkerPriority.NORMAL;
+        this.deadline = NO_DEADLINE;
+        this.submissionTime = System.nanoTime();
+        this.sequence = sequenceGenerator.getAndIncrement();
+        this.scheduled = true;
+        this.period = period;
+        this.scheduledTime = scheduledTime;
+    }
+
+    WorkerRunnable<T> getRunnable() {
+        return runnable;
+    }
+
+    /**
+     * Returns the future completed with the result of this job, on the thread that ran it. The
+     * future also holds the callback of the job.
+     *
+     * @return The future.
+     */
+    WorkerFuture<T> getFuture() {
+        return future;
+    }
+
+    WorkerPriority getPriority() {
+        return priority;
+    }
+
+    long getSubmissionTime() {
+        return submissionTime;
+    }
+
+    /**
+     * Returns the deadline of this job.
+     *
+     * @return The {@link System#nanoTime()} after which the job must not be started anymore, or
+     *         {@link #NO_DEADLINE}.
+     */
+    long getDeadline() {
+        return deadline;
+    }
+
+    boolean hasDeadline() {
+        return deadline != NO_DEADLINE;
+    }
+
+    /**
+     * Checks if this job was scheduled to be started at a given time.
+     *
+     * @return {@code true} if this job was submitted with a delay or a period.
+     */
+    boolean isScheduled() {
+        return scheduled;
+    }
+
+    boolean isPeriodic() {
+        return period > 0;
+    }
+
+    /**
+     * Returns the time this job may be started at: its scheduled time, or its submission time if
+     * it was not scheduled.
+     *
+     * @return A {@link System#nanoTime()}.
+     */
+    long getScheduledTime() {
+        return scheduledTime;
+    }
+
+    /**
+     * Schedules the next run of a periodic job, one period after the previous scheduled run. Only
+     * called by {@link WorkerQueue#reschedule(WorkerJob)}, which publishes the new time.
+     */
+    void reschedule() {
+        scheduledTime += period;
+    }
+
+    /**
+     * Returns the serial lane of this job.
+     *
+     * @return The lane, or {@code null} if this job was not submitted with a key.
+     */
+    WorkerLane getLane() {
+        return lane;
+    }
+
+    void setLane(WorkerLane lane) {
+        this.lane = lane;
+    }
+
+    /**
+     * Marks this job as counted in the queue of the worker. Only called by {@link WorkerQueue}.
+     */
+    void markQueued() {
+        queued.set(true);
+    }
+
+    /**
+     * Marks this job as not counted in the queue anymore: it was taken, dropped or cancelled.
+     *
+     * @return {@code true} if the job was counted in the queue, i.e. if the caller removed it;
+     *         {@code false} if it was already removed by someone else.
+     */
+    boolean unqueue() {
+        return queued.compareAndSet(true, false);
+    }
+
+    /**
+     * Checks if this job missed its deadline.
+     *
+     * @param now The current {@link System#nanoTime()}.
+     * @return {@code true} if the job must not be started anymore.
+     */
+    boolean isExpired(long now) {
+        return deadline != NO_DEADLINE && now - deadline > 0;
+    }
+
+    @Override
+    public int compareTo(WorkerJob<?> other) {
+        if (priority != other.priority) {
+            return other.priority.compareTo(priority);
+        }
+
+        return Long.compare(sequence, other.sequence);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright or © or Copr. QuartzLib contributors (2015 - 2020)
+ *
+ * This software is governed by the CeCILL-B license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-B
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-B license and that you accept its terms.
+ */
+
+package fr.zcraft.quartzlib.components.worker;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * A serial lane of a worker: the keyed queries hashed onto the same lane are run one at a time,
+ * in submission order.
+ *
+ * <p>At most one job of a lane is in the run queue of the worker (or running) at any time; the
+ * other jobs wait in the lane, and the next one is released when the current one completes.</p>
+ */
+final class WorkerLane {
+    private final Queue<WorkerJob<?>> waitingJobs = new ArrayDeque<>();
+    private boolean busy = false;
+
+    /**
+     * Enters a job in the lane.
+     *
+     * @param job The job.
+     * @return {@code true} if the lane was idle, and the job must be queued right away;
+     *         {@code false} if the job waits for the previous jobs of the lane.
+     */
+    synchronized boolean enter(WorkerJob<?> job) {
+        if (busy) {
+            waitingJobs.add(job);
+            return false;
+        }
+
+        busy = true;
+        return true;
+    }
+
+    /**
+     * Releases the lane after its current job completed.
+     *
+     * @return The next job of the lane, which must now be queued, or {@code null} if the lane is
+     *         idle.
+     */
+    synchronized WorkerJob<?> leave() {
+        final WorkerJob<?> next = waitingJobs.poll();
+        if (next == null) {
+            busy = false;
+        }
+        return next;
+    }
+
+    /**
+     * Removes the jobs waiting in the lane. The job currently queued or running, if any, is kept.
+     *
+     * @return The removed jobs.
+     */
+    synchronized List<WorkerJob<?>> clear() {
+        final List<WorkerJob<?>> removed = new ArrayList<>(waitingJobs);
+        waitingJobs.clear();
+        return removed;
+    }
+}
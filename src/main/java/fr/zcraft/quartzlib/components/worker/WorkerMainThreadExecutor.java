@@ -30,171 +30,101 @@
 
 package fr.zcraft.quartzlib.components.worker;
 
-import fr.zcraft.quartzlib.core.QuartzLib;
-import java.util.ArrayDeque;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
-import org.bukkit.Bukkit;
-import org.bukkit.scheduler.BukkitTask;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
-class WorkerMainThreadExecutor implements Runnable {
-    private static final int WATCH_LOOP_DELAY = 1;
-
-    private final String name;
-    private final ArrayDeque<WorkerFuture> mainThreadQueue = new ArrayDeque<>();
-    private BukkitTask mainThreadTask;
+/**
+ * Runs the main-thread queries of a worker.
+ *
+ * <p>The queries are posted to the lane of the worker in the {@link WorkerTickDispatcher}, which
+ * runs the main-thread tasks of all the workers in a round-robin fashion, until the shared time
+ * budget of the tick is spent.</p>
+ */
+class WorkerMainThreadExecutor {
+    /**
+     * Runs the tasks submitted through {@link #getContinuationsExecutor()}. Always enabled.
+     */
+    private static final WorkerMainThreadExecutor continuations = new WorkerMainThreadExecutor("continuations");
+    private static final Executor continuationsExecutor =
+            command -> continuations.submit(Executors.callable(command));
+
+    private final WorkerTickLane lane;
+
+    static {
+        continuations.init();
+    }
 
     public WorkerMainThreadExecutor(String name) {
-        this.name = name;
+        this.lane = new WorkerTickLane(name, Long.MAX_VALUE);
+    }
+
+    /**
+     * Returns an executor running the tasks it receives on the main thread, in the same batches as
+     * the main-thread queries of the workers.
+     *
+     * @return The executor.
+     */
+    static Executor getContinuationsExecutor() {
+        return continuationsExecutor;
     }
 
     public void init() {
-        mainThreadTask = Bukkit.getScheduler().runTaskTimer(QuartzLib.getPlugin(), this, 0, WATCH_LOOP_DELAY);
+        lane.enable();
     }
 
+    /**
+     * Stops this executor. Queries still waiting to be run are cancelled.
+     */
     public void exit() {
-        mainThreadTask.cancel();
-        mainThreadTask = null;
+        lane.disable();
+        for (Runnable query : lane.clear()) {
+            ((MainThreadQuery<?>) query).future.cancel(false);
+        }
     }
 
-    public <T> Future<T> submit(Callable<T> callable) {
-        WorkerFuture<T> future = new WorkerFuture<T>(callable);
-        synchronized (mainThreadQueue) {
-            mainThreadQueue.add(future);
-        }
-        return future;
+    /**
+     * Runs all the queries waiting in this executor on the calling thread, e.g. while the main
+     * thread waits for a worker to stop.
+     */
+    void runQueued() {
+        lane.runAll();
     }
 
-    @Override
-    public void run() {
-        WorkerFuture currentFuture;
-        synchronized (mainThreadQueue) {
-            if (mainThreadQueue.isEmpty()) {
-                return;
-            }
-            currentFuture = mainThreadQueue.pop();
-        }
+    /**
+     * Runs all the tasks waiting in the {@link #getContinuationsExecutor() continuations executor}
+     * on the calling thread.
+     */
+    static void runQueuedContinuations() {
+        continuations.runQueued();
+    }
 
-        currentFuture.runCallable();
+    public <T> CompletableFuture<T> submit(Callable<T> callable) {
+        final MainThreadQuery<T> query = new MainThreadQuery<>(callable);
+        lane.post(query);
+        return query.future;
     }
 
-    private class WorkerFuture<T> implements Future<T> {
+    private static class MainThreadQuery<T> implements Runnable {
         private final Callable<T> callable;
-        private boolean isCancelled;
-        private boolean isDone;
-        private Exception executionException;
-        private T value;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
 
-        public WorkerFuture(Callable<T> callable) {
+        public MainThreadQuery(Callable<T> callable) {
             this.callable = callable;
         }
 
-        public void runCallable() {
-            try {
-                value = callable.call();
-            } catch (Exception ex) {
-                executionException = ex;
-            } finally {
-                isDone = true;
-                synchronized (this) {
-                    this.notifyAll();
-                }
-            }
-        }
-
         @Override
-        public boolean cancel(boolean mayInterruptIfRunning) {
-            if (this.isCancelled || this.isDone) {
-                return false;
+        public void run() {
+            if (future.isDone()) {
+                return; // Cancelled by the worker.
             }
-            this.isCancelled = true;
-            this.isDone = true;
-            return true;
-        }
 
-        @Override
-        public boolean isCancelled() {
-            return this.isCancelled;
-        }
-
-        @Override
-        public boolean isDone() {
-            return this.isDone;
-        }
-
-        @Override
-        public T get() throws InterruptedException, ExecutionException {
-            waitForCompletion();
-            if (executionException != null) {
-                throw new ExecutionException(executionException);
-            }
-            return value;
-        }
-
-        @Override
-        public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
-            waitForCompletion(timeout, unit);
-            if (executionException != null) {
-                throw new ExecutionException(executionException);
-            }
-            return value;
-        }
-
-        private void waitForCompletion(long timeout) throws InterruptedException, TimeoutException {
-            synchronized (this) {
-                long remainingTime;
-                long timeoutTime = System.currentTimeMillis() + timeout;
-                while (!isDone) {
-                    remainingTime = timeoutTime - System.currentTimeMillis();
-                    if (remainingTime <= 0) {
-                        throw new TimeoutException();
-                    }
-                    this.wait(remainingTime);
-                }
-            }
-        }
-
-        private void waitForCompletion() throws InterruptedException {
-            synchronized (this) {
-                while (!isDone) {
-                    this.wait();
-                }
-            }
-        }
-
-        private void waitForCompletion(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
-            long millis = 0;
-            switch (unit) {
-                case NANOSECONDS:
-                    millis = timeout / 10 ^ 6;
-                    break;
-                case MICROSECONDS:
-                    millis = timeout / 10 ^ 3;
-                    break;
-                case MILLISECONDS:
-                    millis = timeout;
-                    break;
-                case SECONDS:
-                    millis = timeout * 10 ^ 3;
-                    break;
-                case MINUTES:
-                    millis = timeout * 10 ^ 3 * 60;
-                    break;
-                case HOURS:
-                    millis = timeout * 10 ^ 3 * 3600;
-                    break;
-                case DAYS:
-                    millis = timeout * 10 ^ 3 * 3600 * 24;
-                    break;
-                default:
-                    break;
+            try {
+                future.complete(callable.call());
+            } catch (Throwable ex) {
+                future.completeExceptionally(ex);
             }
-            waitForCompletion(millis);
         }
-
-
     }
 }
@@ -0,0 +1,103 @@
+/*
+ * Copyright or © or Copr. QuartzLib contributors (2015 - 2020)
+ *
+ * This software is governed by the CeCILL-B license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-B
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-B license and that you accept its terms.
+ */
+
+package fr.zcraft.quartzlib.components.worker;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The metrics recorded by a worker since its creation.
+ *
+ * <p>All times are in nanoseconds. See {@link Worker#getMetrics()}, or register the
+ * {@link WorkerStatsCommand} to dump them in game.</p>
+ */
+public final class WorkerMetrics {
+    private final WorkerHistogram queueDepth = new WorkerHistogram();
+    private final WorkerHistogram waitTime = new WorkerHistogram();
+    private final WorkerHistogram callbackLag = new WorkerHistogram();
+    private final Map<Class<?>, WorkerHistogram> executionTimes = new ConcurrentHashMap<>();
+
+    WorkerMetrics() {
+    }
+
+    /**
+     * Returns the number of queries left in the queue each time a query was taken from it.
+     *
+     * @return The histogram of the queue depth.
+     */
+    public WorkerHistogram getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * Returns the time the started queries waited in the queue, from their submission to their
+     * start.
+     *
+     * @return The histogram of the waiting times.
+     */
+    public WorkerHistogram getWaitTime() {
+        return waitTime;
+    }
+
+    /**
+     * Returns the time the callbacks waited on the main thread, from the completion of their query
+     * to their call.
+     *
+     * @return The histogram of the callbacks lag.
+     */
+    public WorkerHistogram getCallbackLag() {
+        return callbackLag;
+    }
+
+    /**
+     * Returns the execution times of the queries, per class of {@link WorkerRunnable}.
+     *
+     * @return An unmodifiable view of the histograms of the execution times.
+     */
+    public Map<Class<?>, WorkerHistogram> getExecutionTimes() {
+        return Collections.unmodifiableMap(executionTimes);
+    }
+
+    /**
+     * Records the execution time of a query.
+     *
+     * @param runnableClass The class of the runnable.
+     * @param time          The execution time, in nanoseconds.
+     */
+    void recordExecution(Class<?> runnableClass, long time) {
+        WorkerHistogram histogram = executionTimes.get(runnableClass);
+        if (histogram == null) {
+            histogram = executionTimes.computeIfAbsent(runnableClass, key -> new WorkerHistogram());
+        }
+        histogram.record(time);
+    }
+}
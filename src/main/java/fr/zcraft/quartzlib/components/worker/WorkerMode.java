@@ -0,0 +1,65 @@
+/*
+ * Copyright or © or Copr. QuartzLib contributors (2015 - 2020)
+ *
+ * This software is governed by the CeCILL-B license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-B
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-B license and that you accept its terms.
+ */
+
+package fr.zcraft.quartzlib.components.worker;
+
+/**
+ * Defines how a {@link Worker} runs its queries.
+ */
+public enum WorkerMode {
+    /**
+     * The worker owns a single thread, running the queries one after the other, in the order they
+     * were submitted.
+     */
+    DEDICATED_THREAD,
+
+    /**
+     * The worker runs its queries in parallel, on a bounded pool of threads backed by a
+     * work-stealing queue. The size of the pool is set by {@link WorkerAttributes#threads()}.
+     *
+     * <p>Queries may run concurrently and complete in any order: the runnables must be
+     * thread-safe.</p>
+     */
+    POOL,
+
+    /**
+     * The worker runs each query on its own virtual thread, so that queries blocking on I/O
+     * (database, HTTP…) do not limit the number of queries running concurrently.
+     *
+     * <p>Virtual threads require Java 21 or later. On older Java versions, workers requesting this
+     * mode fall back to {@link #DEDICATED_THREAD}. As with {@link #POOL}, the runnables must be
+     * thread-safe.</p>
+     *
+     * <p>This mode is provided by the multi-release part of the QuartzLib jar: if you shade
+     * QuartzLib into your plugin, your plugin's manifest must declare
+     * {@code Multi-Release: true}.</p>
+     */
+    VIRTUAL_THREADS
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright or © or Copr. QuartzLib contributors (2015 - 2020)
+ *
+ * This software is governed by the CeCILL-B license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-B
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-B license and that you accept its terms.
+ */
+
+package fr.zcraft.quartzlib.components.worker;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An unbounded, lock-free, multiple-producers single-consumer FIFO queue.
+ *
+ * <p>Producers link their nodes with a single atomic swap of the tail; the consumer follows the
+ * links from the head without any atomic operation. This is the classic Vyukov queue: an element
+ * may be briefly invisible to the consumer between the swap and the link of its producer, so
+ * producers must signal the consumer <em>after</em> {@link #offer(Object)} returns.</p>
+ *
+ * <p>{@link #offer(Object)} may be called from any thread; {@link #poll()} and {@link #isEmpty()}
+ * must only be called by one thread at a time.</p>
+ *
+ * @param <E> The type of the elements.
+ */
+final class WorkerMpscQueue<E> {
+    private final AtomicReference<Node<E>> tail;
+    private Node<E> head;
+
+    WorkerMpscQueue() {
+        head = new Node<>(null);
+        tail = new AtomicReference<>(head);
+    }
+
+    /**
+     * Adds an element at the end of the queue.
+     *
+     * @param element The element, not {@code null}.
+     */
+    void offer(E element) {
+        final Node<E> node = new Node<>(element);
+        tail.getAndSet(node).next = node;
+    }
+
+    /**
+     * Removes the element at the head of the queue. Consumer only.
+     *
+     * @return The element, or {@code null} if the queue is empty.
+     */
+    E poll() {
+        final Node<E> next = head.next;
+        if (next == null) {
+            return null;
+        }
+
+        final E element = next.value;
+        next.value = null;
+        head = next;
+        return element;
+    }
+
+    /**
+     * Checks if the queue is empty. Consumer only.
+     *
+     * @return {@code true} if no element is visible to the consumer.
+     */
+    boolean isEmpty() {
+        return head.next == null;
+    }
+
+    private static final class Node<E> {
+        private E value;
+        private volatile Node<E> next;
+
+        private Node(E value) {
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,670 @@
+/*
+ * Copyright or © or Copr. QuartzLib contributors (2015 - 2020)
+ *
+ * This software is governed by the CeCILL-B license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-B
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-B license and that you accept its terms.
+ */
+
+package fr.zcraft.quartzlib.components.worker;
+
+import fr.zcraft.quartzlib.tools.PluginLogger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import org.bukkit.Bukkit;
+
+/**
+ * The run queue of a worker: a priority heap of jobs, optionally bounded, and a timer heap of the
+ * scheduled jobs.
+ *
+ * <p>Submitters never lock: they push their jobs to a lock-free {@link WorkerMpscQueue inbox}, and
+ * unpark the thread taking the jobs if it is waiting. This thread moves the jobs from the inbox to
+ * its priority heap before taking the job with the highest priority. The heap lock is only taken
+ * by this thread, by the scheduled jobs ({@link #schedule(WorkerJob)}), by the submitters of a full
+ * {@link WorkerRejectionPolicy#DROP_OLDEST} queue and by the rare maintenance operations
+ * ({@link #clear()}), so it is rarely contended. The inbox is only polled with this lock held.</p>
+ *
+ * <p>Scheduled jobs wait in the timer heap, ordered by scheduled time, until they are due; they
+ * are then moved to the priority heap by the thread taking the jobs, which parks until the next
+ * scheduled time when it has nothing else to run. Scheduled jobs are not counted in the size of
+ * the queue until they are due.</p>
+ *
+ * <p>The queued jobs with a deadline are also kept in a heap ordered by deadline, so that they are
+ * removed (and given to the expiration handler) when their deadline is reached, instead of when
+ * they reach the head of the queue. The thread taking the jobs parks until the next deadline at
+ * most, and can expire the jobs while waiting for something else (see
+ * {@link #await(BooleanSupplier, long)}).</p>
+ *
+ * <p>A cancelled job gives its place back right away (see {@link #remove(WorkerJob)}): it is left
+ * in the heaps, and skipped when it is reached, so that cancelling is constant-time.</p>
+ *
+ * <p>When the queue is bounded, a warning is logged when it fills past its high-water mark, and
+ * again when it gets back below its low-water mark, so that an overloaded worker is noticed before
+ * it starts rejecting queries.</p>
+ */
+final class WorkerQueue {
+    private static final double HIGH_WATER_MARK = 0.8;
+    private static final double LOW_WATER_MARK = 0.5;
+
+    private final WorkerMpscQueue<WorkerJob<?>> inbox = new WorkerMpscQueue<>();
+    private final PriorityQueue<WorkerJob<?>> jobs = new PriorityQueue<>();
+    private final PriorityQueue<WorkerJob<?>> timers = new PriorityQueue<>(WorkerQueue::compareScheduledTimes);
+    private final PriorityQueue<WorkerJob<?>> deadlines = new PriorityQueue<>(WorkerQueue::compareDeadlines);
+    private final AtomicInteger count = new AtomicInteger();
+    private final String name;
+    private final int capacity;
+    private final WorkerRejectionPolicy rejectionPolicy;
+    private final Consumer<WorkerJob<?>> evictionHandler;
+    private final Consumer<WorkerJob<?>> expirationHandler;
+    private final WorkerHistogram depthHistogram;
+    private final int highWaterMark;
+    private final int lowWaterMark;
+    private final AtomicBoolean overloaded = new AtomicBoolean(false);
+
+    /**
+     * Guards the submitters waiting for room in the queue ({@link WorkerRejectionPolicy#BLOCK}).
+     */
+    private final Object roomLock = new Object();
+    private volatile int waitingSubmitters = 0;
+
+    /**
+     * Set when the timer heap is cleared, so that the periodic jobs still running are not
+     * rescheduled. Guarded by the heap lock.
+     */
+    private boolean schedulingClosed = false;
+
+    private volatile Thread consumer;
+    private final AtomicBoolean consumerParked = new AtomicBoolean(false);
+
+    /**
+     * Creates a new queue.
+     *
+     * @param name            The name of the worker owning the queue, for logging.
+     * @param capacity        The maximal number of queued jobs, or {@code 0} for an unbounded queue.
+     * @param rejectionPolicy What to do with the jobs submitted while the queue is full.
+     * @param evictionHandler   Called by the thread submitting a job over the capacity with the
+     *                          jobs dropped to make room for it
+     *                          ({@link WorkerRejectionPolicy#DROP_OLDEST}).
+     * @param expirationHandler Called by the thread taking the jobs with the jobs removed because
+     *                          their deadline was reached.
+     * @param depthHistogram    The histogram recording the number of jobs left in the queue each
+     *                          time a job is taken.
+     */
+    WorkerQueue(String name, int capacity, WorkerRejectionPolicy rejectionPolicy,
+                Consumer<WorkerJob<?>> evictionHandler, Consumer<WorkerJob<?>> expirationHandler,
+                WorkerHistogram depthHistogram) {
+        this.name = name;
+        this.capacity = Math.max(capacity, 0);
+        this.rejectionPolicy = rejectionPolicy;
+        this.evictionHandler = evictionHandler;
+        this.expirationHandler = expirationHandler;
+        this.depthHistogram = depthHistogram;
+        this.highWaterMark = Math.max((int) (this.capacity * HIGH_WATER_MARK), 1);
+        this.lowWaterMark = (int) (this.capacity * LOW_WATER_MARK);
+    }
+
+    WorkerRejectionPolicy getRejectionPolicy() {
+        return rejectionPolicy;
+    }
+
+    /**
+     * Adds a job to the queue, applying the rejection policy if the queue is full.
+     *
+     * <p>With the {@link WorkerRejectionPolicy#DROP_OLDEST} policy, the job is always accepted. If
+     * the queue is full, the calling thread then drops the oldest jobs with the lowest priority (and
+     * gives them to the eviction handler) under the heap lock, so the queue stays bounded even if
+     * the thread taking the jobs is stuck in a long query. Only the jobs of the submitters racing
+     * with this one may be briefly counted over the capacity.</p>
+     *
+     * @param job The job to add.
+     * @return {@code null} if the job was queued, or {@code job} itself if it was rejected.
+     * @throws InterruptedException if the thread was interrupted while waiting for room in the queue.
+     */
+    WorkerJob<?> offer(WorkerJob<?> job) throws InterruptedException {
+        if (capacity > 0 && rejectionPolicy != WorkerRejectionPolicy.DROP_OLDEST && !tryReserve()) {
+            if (rejectionPolicy != WorkerRejectionPolicy.BLOCK || Bukkit.isPrimaryThread()) {
+                return job;
+            }
+            waitForRoom();
+        } else if (capacity == 0 || rejectionPolicy == WorkerRejectionPolicy.DROP_OLDEST) {
+            count.incrementAndGet();
+        }
+
+        publish(job);
+
+        if (rejectionPolicy == WorkerRejectionPolicy.DROP_OLDEST && capacity > 0 && count.get() > capacity) {
+            final List<WorkerJob<?>> evicted;
+            synchronized (jobs) {
+                evicted = drainInbox();
+            }
+            handle(evicted, Collections.emptyList());
+        }
+
+        if (capacity > 0 && count.get() >= highWaterMark && overloaded.compareAndSet(false, true)) {
+            PluginLogger.warning("The queue of the worker ''{0}'' is {1}% full ({2}/{3} queries waiting).",
+                    name, highWaterMark * 100 / capacity, highWaterMark, capacity);
+        }
+
+        return null;
+    }
+
+    /**
+     * Adds a job to the queue whatever its capacity. Used for the jobs that were already accepted
+     * by the worker, such as the jobs released by a {@link WorkerLane}.
+     *
+     * @param job The job to add.
+     */
+    void push(WorkerJob<?> job) {
+        count.incrementAndGet();
+        publish(job);
+    }
+
+    /**
+     * Adds a scheduled job to the timer heap. The job is moved to the queue once due, whatever its
+     * capacity.
+     *
+     * <p>Unlike the other submissions, this takes the heap lock, so that no job can be scheduled
+     * once the timer heap is {@link #clearScheduled() cleared}.</p>
+     *
+     * @param job The job to add.
+     * @return {@code false} if the timer heap was cleared, and the job was not added.
+     */
+    boolean schedule(WorkerJob<?> job) {
+        synchronized (jobs) {
+            if (schedulingClosed) {
+                return false;
+            }
+            inbox.offer(job);
+        }
+
+        wakeUpConsumer();
+        return true;
+    }
+
+    /**
+     * Schedules the next run of a periodic job, and adds it back to the timer heap.
+     *
+     * @param job The job, which just completed a run.
+     * @return {@code false} if the timer heap was cleared, and the job was not added.
+     * @see #schedule(WorkerJob)
+     */
+    boolean reschedule(WorkerJob<?> job) {
+        synchronized (jobs) {
+            if (schedulingClosed) {
+                return false;
+            }
+            job.reschedule();
+            inbox.offer(job);
+        }
+
+        wakeUpConsumer();
+        return true;
+    }
+
+    /**
+     * Accepts scheduled jobs again, after the timer heap was {@link #clearScheduled() cleared}.
+     */
+    void open() {
+        synchronized (jobs) {
+            schedulingClosed = false;
+        }
+    }
+
+    /**
+     * Removes the job with the highest priority from the queue, waiting for one if the queue is
+     * empty. Must only be called by one thread at a time.
+     *
+     * @return The job.
+     * @throws InterruptedException if the thread was interrupted while waiting.
+     */
+    WorkerJob<?> take() throws InterruptedException {
+        consumer = Thread.currentThread();
+
+        while (true) {
+            final WorkerJob<?> job;
+            final List<WorkerJob<?>> evicted;
+            final List<WorkerJob<?>> expired;
+            final int depth;
+            final long wakeUpTime;
+
+            synchronized (jobs) {
+                evicted = drainInbox();
+                expired = expireDeadlines(System.nanoTime());
+                job = pollLive();
+                wakeUpTime = getWakeUpTime();
+            }
+
+            handle(evicted, expired);
+
+            if (job != null) {
+                onRemoved(1);
+                depthHistogram.record(count.get());
+                return job;
+            }
+
+            // The flag is set before checking the inbox one last time, and submitters check it
+            // after publishing their job: either we see the job, or they see the flag.
+            consumerParked.set(true);
+            try {
+                synchronized (jobs) {
+                    if (!inbox.isEmpty()) {
+                        continue;
+                    }
+                }
+
+                if (wakeUpTime == WorkerJob.NO_DEADLINE) {
+                    LockSupport.park(this);
+                } else {
+                    LockSupport.parkNanos(this, wakeUpTime - System.nanoTime());
+                }
+            } finally {
+                consumerParked.set(false);
+            }
+
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /**
+     * Waits until a condition is met, removing the queued jobs whose deadline is reached meanwhile
+     * (and giving them to the expiration handler). Must only be called by the thread taking the
+     * jobs, when it waits for something else than a job.
+     *
+     * <p>The condition is checked again when the timeout elapses, when a deadline is reached, when
+     * a job is submitted, and when {@link #wakeUpConsumer()} is called.</p>
+     *
+     * @param condition The condition.
+     * @param timeout   The maximal time to wait, in nanoseconds.
+     * @return {@code true} if the condition is met, {@code false} if the timeout elapsed.
+     * @throws InterruptedException if the thread was interrupted while waiting.
+     */
+    boolean await(BooleanSupplier condition, long timeout) throws InterruptedException {
+        consumer = Thread.currentThread();
+        final long start = System.nanoTime();
+
+        while (!condition.getAsBoolean()) {
+            final long remaining = timeout - (System.nanoTime() - start);
+            if (remaining <= 0) {
+                return false;
+            }
+
+            final long untilExpiry = expire();
+
+            // As in take(), the flag is set before checking the condition and the inbox one last
+            // time, so that no wake-up is missed.
+            consumerParked.set(true);
+            try {
+                if (condition.getAsBoolean()) {
+                    return true;
+                }
+                synchronized (jobs) {
+                    if (!inbox.isEmpty()) {
+                        continue;
+                    }
+                }
+
+                LockSupport.parkNanos(this, Math.min(remaining, untilExpiry));
+            } finally {
+                consumerParked.set(false);
+            }
+
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Removes the queued jobs whose deadline was reached, and gives them to the expiration
+     * handler.
+     *
+     * @return The time until the next deadline, in nanoseconds, or {@link Long#MAX_VALUE} if no
+     *         queued job has a deadline.
+     */
+    private long expire() {
+        final List<WorkerJob<?>> evicted;
+        final List<WorkerJob<?>> expired;
+        final long now = System.nanoTime();
+        final WorkerJob<?> nextDeadline;
+
+        synchronized (jobs) {
+            evicted = drainInbox();
+            expired = expireDeadlines(now);
+            nextDeadline = deadlines.peek();
+        }
+
+        handle(evicted, expired);
+        return nextDeadline != null ? nextDeadline.getDeadline() + 1 - now : Long.MAX_VALUE;
+    }
+
+    /**
+     * Removes all the jobs from the queue, including the scheduled jobs.
+     *
+     * @return The removed jobs.
+     */
+    List<WorkerJob<?>> clear() {
+        final List<WorkerJob<?>> removed = clearScheduled();
+        int queued = 0;
+        synchronized (jobs) {
+            moveInbox();
+            for (WorkerJob<?> job : jobs) {
+                if (job.unqueue()) {
+                    removed.add(job);
+                    queued++;
+                }
+            }
+            jobs.clear();
+            deadlines.clear();
+        }
+
+        onRemoved(queued);
+        return removed;
+    }
+
+    /**
+     * Removes the scheduled jobs which are not due yet from the timer heap. No job can be scheduled
+     * anymore until the queue is {@link #open() opened} again.
+     *
+     * @return The removed jobs.
+     */
+    List<WorkerJob<?>> clearScheduled() {
+        synchronized (jobs) {
+            schedulingClosed = true;
+            moveInbox();
+            final List<WorkerJob<?>> removed = new ArrayList<>(timers);
+            timers.clear();
+            return removed;
+        }
+    }
+
+    /**
+     * Removes a cancelled job from the queue, in constant time: its place is given back right
+     * away, and the job is skipped when it is reached in the heaps.
+     *
+     * @param job The job.
+     * @return {@code true} if the job was queued; {@code false} if it was not queued yet, or if it
+     *         was already taken or dropped.
+     */
+    boolean remove(WorkerJob<?> job) {
+        if (!job.unqueue()) {
+            return false;
+        }
+
+        onRemoved(1);
+        return true;
+    }
+
+    int size() {
+        return count.get();
+    }
+
+    private void publish(WorkerJob<?> job) {
+        job.markQueued();
+        inbox.offer(job);
+        wakeUpConsumer();
+    }
+
+    /**
+     * Wakes up the thread taking the jobs if it is waiting, so that it checks its
+     * {@link #await(BooleanSupplier, long) condition} again.
+     */
+    void wakeUpConsumer() {
+        // Only the first submitter seeing the thread parked wakes it up, as unparking is costly:
+        // once woken up, the thread sees all the jobs submitted meanwhile.
+        if (consumerParked.get() && consumerParked.compareAndSet(true, false)) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * Gives the jobs removed from the queue to their handlers. Must be called without the heap
+     * lock held.
+     */
+    private void handle(List<WorkerJob<?>> evicted, List<WorkerJob<?>> expired) {
+        for (WorkerJob<?> evictedJob : evicted) {
+            evictionHandler.accept(evictedJob);
+        }
+        for (WorkerJob<?> expiredJob : expired) {
+            expirationHandler.accept(expiredJob);
+        }
+    }
+
+    /**
+     * Takes a place in the queue if there is room left.
+     */
+    private boolean tryReserve() {
+        int current;
+        do {
+            current = count.get();
+            if (current >= capacity) {
+                return false;
+            }
+        } while (!count.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    private void waitForRoom() throws InterruptedException {
+        synchronized (roomLock) {
+            waitingSubmitters++;
+            try {
+                while (!tryReserve()) {
+                    roomLock.wait();
+                }
+            } finally {
+                waitingSubmitters--;
+            }
+        }
+    }
+
+    /**
+     * Updates the count of queued jobs, and wakes up the submitters waiting for room.
+     */
+    private void onRemoved(int removed) {
+        if (removed == 0) {
+            return;
+        }
+
+        final int remaining = count.addAndGet(-removed);
+
+        if (waitingSubmitters > 0) {
+            synchronized (roomLock) {
+                roomLock.notifyAll();
+            }
+        }
+
+        if (capacity > 0 && remaining <= lowWaterMark && overloaded.compareAndSet(true, false)) {
+            PluginLogger.info("The queue of the worker ''{0}'' is back under {1} queries waiting.", name, lowWaterMark);
+        }
+    }
+
+    /**
+     * Moves the jobs of the inbox to the heaps, then the due scheduled jobs to the priority heap,
+     * dropping the oldest jobs with the lowest priority if the queue is over its capacity
+     * ({@link WorkerRejectionPolicy#DROP_OLDEST}). Must be called with the heap lock held.
+     *
+     * @return The dropped jobs.
+     */
+    private List<WorkerJob<?>> drainInbox() {
+        moveInbox();
+
+        if (!timers.isEmpty()) {
+            final long now = System.nanoTime();
+            int due = 0;
+            while (!timers.isEmpty() && timers.peek().getScheduledTime() - now <= 0) {
+                final WorkerJob<?> dueJob = timers.poll();
+                dueJob.markQueued();
+                jobs.add(dueJob);
+                due++;
+            }
+            count.addAndGet(due);
+        }
+
+        int excess = count.get() - capacity;
+        if (capacity == 0 || excess <= 0) {
+            return Collections.emptyList();
+        }
+
+        // The cancelled jobs found on the way are removed without counting: their place was
+        // already given back.
+        final List<WorkerJob<?>> evicted = new ArrayList<>();
+        while (excess > 0 && !jobs.isEmpty()) {
+            final WorkerJob<?> oldestLowest = findOldestLowest();
+            jobs.remove(oldestLowest);
+            if (oldestLowest.hasDeadline()) {
+                deadlines.remove(oldestLowest);
+            }
+            if (oldestLowest.unqueue()) {
+                evicted.add(oldestLowest);
+                excess--;
+            }
+        }
+
+        onRemoved(evicted.size());
+        return evicted;
+    }
+
+    /**
+     * Moves the jobs of the inbox to the priority heap, or to the timer heap for the scheduled
+     * jobs. Must be called with the heap lock held.
+     */
+    private void moveInbox() {
+        WorkerJob<?> job;
+        while ((job = inbox.poll()) != null) {
+            if (job.isScheduled()) {
+                timers.add(job);
+            } else {
+                jobs.add(job);
+                if (job.hasDeadline()) {
+                    deadlines.add(job);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the job with the highest priority from the heaps, skipping the cancelled jobs. Must
+     * be called with the heap lock held.
+     *
+     * @return The job, or {@code null} if no job is queued.
+     */
+    private WorkerJob<?> pollLive() {
+        WorkerJob<?> job;
+        while ((job = jobs.poll()) != null) {
+            if (job.hasDeadline()) {
+                deadlines.remove(job);
+            }
+            if (job.unqueue()) {
+                return job;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes the queued jobs whose deadline was reached. Must be called with the heap lock held.
+     *
+     * @param now The current {@link System#nanoTime()}.
+     * @return The removed jobs.
+     */
+    private List<WorkerJob<?>> expireDeadlines(long now) {
+        if (deadlines.isEmpty() || !deadlines.peek().isExpired(now)) {
+            return Collections.emptyList();
+        }
+
+        final List<WorkerJob<?>> expired = new ArrayList<>();
+        while (!deadlines.isEmpty() && deadlines.peek().isExpired(now)) {
+            final WorkerJob<?> job = deadlines.poll();
+            jobs.remove(job);
+            if (job.unqueue()) {
+                expired.add(job);
+            }
+        }
+
+        onRemoved(expired.size());
+        return expired;
+    }
+
+    /**
+     * Returns the time the thread taking the jobs must wake up at to handle the next scheduled job
+     * or deadline. Must be called with the heap lock held.
+     *
+     * @return A {@link System#nanoTime()}, or {@link WorkerJob#NO_DEADLINE} to wait indefinitely.
+     */
+    private long getWakeUpTime() {
+        long wakeUpTime = WorkerJob.NO_DEADLINE;
+        if (!timers.isEmpty()) {
+            wakeUpTime = timers.peek().getScheduledTime();
+        }
+
+        if (!deadlines.isEmpty()) {
+            final long expiryTime = deadlines.peek().getDeadline() + 1;
+            if (wakeUpTime == WorkerJob.NO_DEADLINE || expiryTime - wakeUpTime < 0) {
+                wakeUpTime = expiryTime;
+            }
+        }
+
+        return wakeUpTime;
+    }
+
+    /**
+     * Orders the scheduled jobs by scheduled time, then like the other jobs.
+     */
+    private static int compareScheduledTimes(WorkerJob<?> first, WorkerJob<?> second) {
+        final long difference = first.getScheduledTime() - second.getScheduledTime();
+        return difference != 0 ? Long.signum(difference) : first.compareTo(second);
+    }
+
+    /**
+     * Orders the jobs with a deadline by deadline.
+     */
+    private static int compareDeadlines(WorkerJob<?> first, WorkerJob<?> second) {
+        return Long.signum(first.getDeadline() - second.getDeadline());
+    }
+
+    /**
+     * Finds the oldest queued job with the lowest priority. Must be called with the heap lock held.
+     */
+    private WorkerJob<?> findOldestLowest() {
+        WorkerJob<?> candidate = null;
+        for (WorkerJob<?> queued : jobs) {
+            if (candidate == null || queued.getPriority().compareTo(candidate.getPriority()) < 0
+                    || (queued.getPriority() == candidate.getPriority() && queued.compareTo(candidate) < 0)) {
+                candidate = queued;
+            }
+        }
+        return candidate;
+    }
+}
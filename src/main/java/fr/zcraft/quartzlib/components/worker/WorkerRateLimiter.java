@@ -0,0 +1,86 @@
+/*
+ * Copyright or © or Copr. QuartzLib contributors (2015 - 2020)
+ *
+ * This software is governed by the CeCILL-B license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-B
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-B license and that you accept its terms.
+ */
+
+package fr.zcraft.quartzlib.components.worker;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket limiting the rate at which a worker starts its queries.
+ *
+ * <p>The bucket holds up to {@code burst} permits, and is refilled at a constant rate. Starting a
+ * query consumes a permit; when the bucket is empty, the worker waits for the next permit before
+ * taking its next query, so the queries never have to sleep themselves.</p>
+ *
+ * <p>This class is not thread-safe: it is only used by the thread taking the jobs of the
+ * worker.</p>
+ */
+final class WorkerRateLimiter {
+    private final double permitsPerNanosecond;
+    private final double burst;
+    private double permits;
+    private long lastRefill;
+
+    /**
+     * Creates a new rate limiter, with a full bucket.
+     *
+     * @param permitsPerSecond The rate at which permits are added to the bucket.
+     * @param burst            The maximal number of permits in the bucket.
+     */
+    WorkerRateLimiter(double permitsPerSecond, int burst) {
+        this.permitsPerNanosecond = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = Math.max(burst, 1);
+        this.permits = this.burst;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Returns the time to wait until a permit is available.
+     *
+     * @param now The current {@link System#nanoTime()}.
+     * @return The time to wait, in nanoseconds, or {@code 0} if a permit is available right away.
+     */
+    long getWaitTime(long now) {
+        permits = Math.min(burst, permits + (now - lastRefill) * permitsPerNanosecond);
+        lastRefill = now;
+
+        if (permits >= 1) {
+            return 0;
+        }
+        return Math.max((long) Math.ceil((1 - permits) / permitsPerNanosecond), 1);
+    }
+
+    /**
+     * Consumes a permit. Must only be called after {@link #getWaitTime(long)} returned {@code 0}.
+     */
+    void consume() {
+        permits -= 1;
+    }
+}
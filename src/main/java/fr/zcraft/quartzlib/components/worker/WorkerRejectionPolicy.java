@@ -0,0 +1,72 @@
+/*
+ * Copyright or © or Copr. QuartzLib contributors (2015 - 2020)
+ *
+ * This software is governed by the CeCILL-B license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-B
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-B license and that you accept its terms.
+ */
+
+package fr.zcraft.quartzlib.components.worker;
+
+/**
+ * Defines what a {@link Worker} with a bounded queue does with the queries submitted while its
+ * queue is full.
+ *
+ * @see WorkerAttributes#capacity()
+ */
+public enum WorkerRejectionPolicy {
+    /**
+     * The submitting thread waits until there is room in the queue.
+     *
+     * <p>The main thread is never blocked: queries submitted from it while the queue is full are
+     * rejected, as with {@link #FAIL}.</p>
+     */
+    BLOCK,
+
+    /**
+     * The query is run by the submitting thread itself, before the submission method returns. Its
+     * callback is still called later, on the main thread.
+     *
+     * <p>The main thread never runs the queries: queries submitted from it while the queue is full
+     * are rejected, as with {@link #FAIL}.</p>
+     */
+    CALLER_RUNS,
+
+    /**
+     * The oldest query of the lowest priority in the queue is dropped to make room for the new one.
+     * Its callback receives a {@link java.util.concurrent.RejectedExecutionException}. If the new
+     * query has a lower priority than all the queued ones, the new query is rejected instead.
+     *
+     * <p>The query to drop is chosen by the thread submitting the new query, so the queue stays
+     * bounded even while the worker is stuck in a long query.</p>
+     */
+    DROP_OLDEST,
+
+    /**
+     * The new query is rejected: its callback receives a
+     * {@link java.util.concurrent.RejectedExecutionException}.
+     */
+    FAIL
+}
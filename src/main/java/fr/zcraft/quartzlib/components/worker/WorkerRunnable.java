@@ -30,11 +30,31 @@
 
 package fr.zcraft.quartzlib.components.worker;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+
 public abstract class WorkerRunnable<T> {
-    private Worker worker;
+    private volatile Worker worker;
 
     public abstract T run() throws Throwable;
 
+    /**
+     * Submits a query to the main thread, on behalf of the worker running this runnable.
+     *
+     * @param callable The query to run on the main thread.
+     * @param <R>      The type of the query's result.
+     * @return A future completed with the result of the query, or {@code null} if the worker does
+     *         not {@link WorkerAttributes#queriesMainThread() query the main thread}.
+     * @throws IllegalStateException if this runnable was not submitted to a worker.
+     */
+    protected final <R> CompletableFuture<R> submitToMainThread(Callable<R> callable) {
+        final Worker currentWorker = worker;
+        if (currentWorker == null) {
+            throw new IllegalStateException("This runnable was not submitted to any worker");
+        }
+        return currentWorker.queryMainThread(callable);
+    }
+
     Worker getWorker() {
         return worker;
     }
@@ -0,0 +1,134 @@
+/*
+ * Copyright or © or Copr. QuartzLib contributors (2015 - 2020)
+ *
+ * This software is governed by the CeCILL-B license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-B
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-B license and that you accept its terms.
+ */
+
+package fr.zcraft.quartzlib.components.worker;
+
+import fr.zcraft.quartzlib.components.commands.Command;
+import fr.zcraft.quartzlib.components.commands.CommandException;
+import fr.zcraft.quartzlib.components.commands.CommandInfo;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A command dumping the {@link WorkerMetrics metrics} of the running workers.
+ *
+ * <p>This command is not registered by default; to use it, add it to one of your command groups,
+ * e.g. {@code Commands.register("myplugin", ..., WorkerStatsCommand.class)}. Without argument, it
+ * displays a summary of every worker, with its three most time-consuming query types; with the
+ * class name of a worker as argument, it displays all the query types of this worker.</p>
+ */
+@CommandInfo(name = "workers", usageParameters = "[worker class]")
+public class WorkerStatsCommand extends Command {
+    private static final int SUMMARY_QUERY_TYPES = 3;
+
+    @Override
+    protected void run() throws CommandException {
+        if (args.length == 0) {
+            if (Worker.getRunningWorkers().isEmpty()) {
+                info("There is no running worker.");
+                return;
+            }
+
+            for (Worker worker : Worker.getRunningWorkers()) {
+                displayWorker(worker, SUMMARY_QUERY_TYPES);
+            }
+            return;
+        }
+
+        for (Worker worker : Worker.getRunningWorkers()) {
+            if (worker.getClass().getSimpleName().equalsIgnoreCase(args[0])) {
+                displayWorker(worker, Integer.MAX_VALUE);
+                return;
+            }
+        }
+
+        error("There is no running worker named " + args[0] + ".");
+    }
+
+    @Override
+    protected List<String> complete() throws CommandException {
+        if (args.length != 1) {
+            return null;
+        }
+
+        final List<String> names = new ArrayList<>();
+        for (Worker worker : Worker.getRunningWorkers()) {
+            names.add(worker.getClass().getSimpleName());
+        }
+        return getMatchingSubset(names, args[0]);
+    }
+
+    private void displayWorker(Worker worker, int queryTypes) {
+        final WorkerMetrics metrics = worker.getMetrics();
+
+        info("");
+        info("§6§l" + worker.getName() + "§7 (" + worker.getMode().name().toLowerCase() + ") - "
+                + worker.getQueueSize() + " queued, " + worker.getRejectedCount() + " rejected, "
+                + worker.getThrottledCount() + " throttled");
+        info("Queue depth: " + formatCount(metrics.getQueueDepth()));
+        info("Waiting time: " + formatTimes(metrics.getWaitTime()));
+        info("Callbacks lag: " + formatTimes(metrics.getCallbackLag()));
+
+        final List<Map.Entry<Class<?>, WorkerHistogram>> executionTimes =
+                new ArrayList<>(metrics.getExecutionTimes().entrySet());
+        executionTimes.sort(Comparator.comparingLong(
+                (Map.Entry<Class<?>, WorkerHistogram> entry) -> entry.getValue().getSum()).reversed());
+
+        for (int i = 0; i < executionTimes.size() && i < queryTypes; i++) {
+            final Map.Entry<Class<?>, WorkerHistogram> entry = executionTimes.get(i);
+            info("§7- §f" + getQueryTypeName(entry.getKey()) + "§7: " + entry.getValue().getCount() + " runs, "
+                    + formatTimes(entry.getValue()) + ", total " + formatTime(entry.getValue().getSum()));
+        }
+    }
+
+    private static String getQueryTypeName(Class<?> runnableClass) {
+        final String name = runnableClass.getName();
+        return name.substring(name.lastIndexOf('.') + 1);
+    }
+
+    private static String formatCount(WorkerHistogram histogram) {
+        return "p50 " + histogram.getPercentile(50) + ", p99 " + histogram.getPercentile(99)
+                + ", max " + histogram.getMax();
+    }
+
+    private static String formatTimes(WorkerHistogram histogram) {
+        return "mean " + formatTime((long) histogram.getMean())
+                + ", p50 " + formatTime(histogram.getPercentile(50))
+                + ", p99 " + formatTime(histogram.getPercentile(99))
+                + ", max " + formatTime(histogram.getMax());
+    }
+
+    private static String formatTime(long nanoseconds) {
+        return String.format("%.2f ms", nanoseconds / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+}
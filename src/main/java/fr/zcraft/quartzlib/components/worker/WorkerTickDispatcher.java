@@ -0,0 +1,192 @@
+/*
+ * Copyright or © or Copr. QuartzLib contributors (2015 - 2020)
+ *
+ * This software is governed by the CeCILL-B license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-B
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-B license and that you accept its terms.
+ */
+
+package fr.zcraft.quartzlib.components.worker;
+
+import fr.zcraft.quartzlib.core.QuartzLib;
+import fr.zcraft.quartzlib.tools.PluginLogger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Runs the main-thread tasks of all the workers (callbacks, main-thread queries and continuations)
+ * from a single Bukkit task.
+ *
+ * <p>Workers post their tasks to their own {@link WorkerTickLane lanes}, without locking. At every
+ * tick, the dispatcher serves the lanes with pending tasks in a round-robin fashion, one task at a
+ * time, until the shared time budget is spent; a lane also stops being served for the tick once
+ * its own budget is spent. At least one task is run per tick, whatever the budget.</p>
+ *
+ * <p>The Bukkit task only runs while tasks are posted: it stops after a second without any task,
+ * and is started again by the next posted task.</p>
+ */
+final class WorkerTickDispatcher {
+    /**
+     * The shared time budget used if none was set.
+     */
+    static final long DEFAULT_TIME_BUDGET = 10;
+
+    private static final int IDLE_TICKS_BEFORE_STOP = 20;
+
+    private static final Queue<WorkerTickLane> readyLanes = new ConcurrentLinkedQueue<>();
+    private static final Object taskLock = new Object();
+    private static volatile BukkitTask task;
+    private static volatile long timeBudget = TimeUnit.MILLISECONDS.toNanos(DEFAULT_TIME_BUDGET);
+    private static long currentTick = 0;
+    private static int idleTicks = 0;
+
+    private WorkerTickDispatcher() {
+    }
+
+    /**
+     * Sets the time the main-thread tasks of all workers may use at each tick.
+     *
+     * @param milliseconds The per-tick time budget, in milliseconds.
+     */
+    static void setTimeBudget(long milliseconds) {
+        timeBudget = TimeUnit.MILLISECONDS.toNanos(Math.max(milliseconds, 0));
+    }
+
+    /**
+     * Adds a lane with pending tasks to the round-robin list. Called once per lane until the
+     * dispatcher {@link WorkerTickLane#release() releases} it.
+     *
+     * @param lane The lane.
+     */
+    static void schedule(WorkerTickLane lane) {
+        readyLanes.add(lane);
+        if (!isRunning()) {
+            startTask();
+        }
+    }
+
+    /**
+     * Runs a task of a lane, logging the exceptions it throws.
+     *
+     * @param lane The lane of the task.
+     * @param task The task.
+     */
+    static void runTask(WorkerTickLane lane, Runnable task) {
+        try {
+            task.run();
+        } catch (Throwable ex) {
+            PluginLogger.error("Exception thrown by a main-thread task of the worker ''{0}''", ex, lane.getName());
+        }
+    }
+
+    private static void startTask() {
+        synchronized (taskLock) {
+            if (!isRunning()) {
+                idleTicks = 0;
+                task = Bukkit.getScheduler().runTaskTimer(QuartzLib.getPlugin(), WorkerTickDispatcher::tick, 0, 1);
+            }
+        }
+    }
+
+    /**
+     * Checks if the Bukkit task is running. The task is kept in a static field, which outlives the
+     * plugin: when the plugin is disabled, Bukkit cancels the task, and the next scheduled lane
+     * must start a new one (for the new plugin instance, if it was reloaded).
+     */
+    private static boolean isRunning() {
+        final BukkitTask currentTask = task;
+        return currentTask != null && !currentTask.isCancelled() && currentTask.getOwner() == QuartzLib.getPlugin();
+    }
+
+    /**
+     * Stops the Bukkit task. A lane scheduled while stopping restarts it: either the lane was added
+     * before the task was cleared, and is seen by the last check, or it sees that there is no task.
+     */
+    private static void stopTask() {
+        synchronized (taskLock) {
+            if (task != null) {
+                task.cancel();
+                task = null;
+            }
+            if (!readyLanes.isEmpty()) {
+                startTask();
+            }
+        }
+    }
+
+    private static void tick() {
+        final long deadline = System.nanoTime() + timeBudget;
+        final long tick = ++currentTick;
+        List<WorkerTickLane> exhaustedLanes = null;
+        boolean ranTask = false;
+        WorkerTickLane lane;
+
+        while ((!ranTask || System.nanoTime() - deadline < 0) && (lane = readyLanes.poll()) != null) {
+            if (!lane.isEnabled()) {
+                lane.release();
+                continue;
+            }
+
+            if (lane.lastTick != tick) {
+                lane.lastTick = tick;
+                lane.spentTime = 0;
+            }
+
+            final Runnable laneTask = lane.poll();
+            if (laneTask != null) {
+                final long start = System.nanoTime();
+                runTask(lane, laneTask);
+                lane.spentTime += System.nanoTime() - start;
+                ranTask = true;
+            }
+
+            if (lane.isEmpty()) {
+                lane.release();
+            } else if (lane.spentTime >= lane.getTimeBudget()) {
+                if (exhaustedLanes == null) {
+                    exhaustedLanes = new ArrayList<>();
+                }
+                exhaustedLanes.add(lane);
+            } else {
+                readyLanes.add(lane);
+            }
+        }
+
+        if (exhaustedLanes != null) {
+            readyLanes.addAll(exhaustedLanes);
+        }
+
+        if (ranTask || !readyLanes.isEmpty()) {
+            idleTicks = 0;
+        } else if (++idleTicks >= IDLE_TICKS_BEFORE_STOP) {
+            stopTask();
+        }
+    }
+}
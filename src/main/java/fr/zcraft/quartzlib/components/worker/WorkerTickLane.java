@@ -0,0 +1,154 @@
+/*
+ * Copyright or © or Copr. QuartzLib contributors (2015 - 2020)
+ *
+ * This software is governed by the CeCILL-B license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-B
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-B license and that you accept its terms.
+ */
+
+package fr.zcraft.quartzlib.components.worker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A lane of the {@link WorkerTickDispatcher}: the main-thread tasks posted by a worker (its
+ * callbacks, or its main-thread queries).
+ *
+ * <p>Tasks can be posted from any thread without locking. A lane with pending tasks is scheduled
+ * once in the dispatcher, which then serves it until it is empty.</p>
+ */
+final class WorkerTickLane {
+    private final String name;
+    private final long timeBudget;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private volatile boolean enabled = false;
+
+    /*
+     * Only used by the dispatcher, on the main thread.
+     */
+    long lastTick = -1;
+    long spentTime = 0;
+
+    /**
+     * Creates a new lane, initially disabled.
+     *
+     * @param name       The name of the worker owning this lane, for logging.
+     * @param timeBudget The time, in nanoseconds, the tasks of this lane may use at each tick.
+     */
+    WorkerTickLane(String name, long timeBudget) {
+        this.name = name;
+        this.timeBudget = timeBudget;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    long getTimeBudget() {
+        return timeBudget;
+    }
+
+    /**
+     * Posts a task to run on the main thread. Tasks posted while the lane is disabled are kept until
+     * it is enabled.
+     *
+     * @param task The task.
+     */
+    void post(Runnable task) {
+        tasks.add(task);
+        if (enabled) {
+            schedule();
+        }
+    }
+
+    void enable() {
+        enabled = true;
+        if (!tasks.isEmpty()) {
+            schedule();
+        }
+    }
+
+    void disable() {
+        enabled = false;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Removes the pending tasks of this lane.
+     *
+     * @return The removed tasks.
+     */
+    List<Runnable> clear() {
+        final List<Runnable> removed = new ArrayList<>();
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            removed.add(task);
+        }
+        return removed;
+    }
+
+    /**
+     * Runs all the pending tasks of this lane on the calling thread, whatever the time budget.
+     */
+    void runAll() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            WorkerTickDispatcher.runTask(this, task);
+        }
+    }
+
+    Runnable poll() {
+        return tasks.poll();
+    }
+
+    boolean isEmpty() {
+        return tasks.isEmpty();
+    }
+
+    /**
+     * Called by the dispatcher when it stops serving this lane, because the lane is empty or
+     * disabled. Schedules the lane again if a task was posted meanwhile.
+     */
+    void release() {
+        scheduled.set(false);
+        if (enabled && !tasks.isEmpty()) {
+            schedule();
+        }
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            WorkerTickDispatcher.schedule(this);
+        }
+    }
+}
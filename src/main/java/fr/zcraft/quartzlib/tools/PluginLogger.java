@@ -31,21 +31,22 @@
 package fr.zcraft.quartzlib.tools;
 
 import fr.zcraft.quartzlib.core.QuartzLib;
-import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 
 public final class PluginLogger {
     private static Thread mainThread;
-    private static HashMap<Thread, PluginThreadLogger> loggers;
+    private static Map<String, PluginThreadLogger> loggers;
 
     private PluginLogger() {
     }
 
     public static void init() {
         mainThread = Thread.currentThread();
-        loggers = new HashMap<>();
+        loggers = new ConcurrentHashMap<>();
     }
 
     public static void log(Level level, String message, Throwable ex) {
@@ -102,22 +103,17 @@ public final class PluginLogger {
     }
 
     private static Logger getLogger(Thread thread) {
-        PluginThreadLogger logger = loggers.get(thread);
-        if (logger == null) {
-            logger = new PluginThreadLogger(thread);
-            loggers.put(thread, logger);
-        }
-        return logger;
+        return loggers.computeIfAbsent(thread.getName(), PluginThreadLogger::new);
     }
 
     private static class PluginThreadLogger extends Logger {
         private final String loggerName;
 
-        public PluginThreadLogger(Thread thread) {
+        public PluginThreadLogger(String threadName) {
             super(QuartzLib.getPlugin().getClass().getCanonicalName(), null);
             setParent(QuartzLib.getPlugin().getLogger());
             setLevel(Level.ALL);
-            loggerName = "[" + thread.getName() + "] ";
+            loggerName = "[" + threadName + "] ";
         }
 
         @Override
@@ -32,6 +32,7 @@ package fr.zcraft.quartzlib.tools.items;
 
 import fr.zcraft.quartzlib.tools.reflection.NMSException;
 import fr.zcraft.quartzlib.tools.reflection.Reflection;
+import fr.zcraft.quartzlib.tools.runners.LightTask;
 import fr.zcraft.quartzlib.tools.runners.RunTask;
 import java.lang.reflect.Method;
 import java.lang.reflect.Type;
@@ -499,7 +500,7 @@ public abstract class ItemUtils {
      * @param item     The item to drop.
      */
     public static void dropNaturallyLater(Location location, ItemStack item) {
-        RunTask.nextTick(() -> dropNaturally(location, item));
+        RunTask.nextTickLight(() -> dropNaturally(location, item));
     }
 
     /**
@@ -509,7 +510,19 @@ public abstract class ItemUtils {
      * @param item     The item to drop.
      */
     public static void dropLater(final Location location, final ItemStack item) {
-        RunTask.nextTick(() -> drop(location, item));
+        RunTask.nextTickLight(() -> drop(location, item));
+    }
+
+    /**
+     * Drops the item at the given location, after the given number of server ticks.
+     *
+     * @param location The location to drop the item at.
+     * @param item     The item to drop.
+     * @param delay    The ticks to wait before dropping the item.
+     * @return A handle to cancel the drop.
+     */
+    public static LightTask dropLater(final Location location, final ItemStack item, long delay) {
+        return RunTask.laterLight(() -> drop(location, item), delay);
     }
 
     /**
@@ -118,6 +118,44 @@ public final class UUIDFetcher {
         return uuid.get(name);
     }
 
+    /**
+     * Fetches the UUID of the given player name from the Mojang API with a single request, without
+     * waiting before or after it.
+     *
+     * <p>Unlike {@link #fetch(String)}, this method does not enforce the Mojang API rate limit: the
+     * caller is responsible for it, e.g. by running it in a worker with a
+     * {@link fr.zcraft.quartzlib.components.worker.WorkerAttributes#permitsPerSecond() rate limit}.
+     * It still needs to be called from a dedicated thread, as the request is executed directly in
+     * the current thread.</p>
+     *
+     * <p>This method may not be able to retrieve the UUIDs of some players with old accounts. For
+     * them, use {@link #fetchOriginalWithoutDelay(String)}, as another rate-limited request.</p>
+     *
+     * @param name A player name.
+     * @return The player's {@link UUID}, or {@code null} if it was not found.
+     * @throws IOException If an exception occurs while contacting the Mojang API.
+     */
+    public static UUID fetchWithoutDelay(String name) throws IOException {
+        return rawFetch(Collections.singletonList(name)).get(name);
+    }
+
+    /**
+     * Fetches the UUID of the original owner of the given player name from the Mojang API with a
+     * single request, without waiting before or after it.
+     *
+     * <p>As {@link #fetchWithoutDelay(String)}, this method does not enforce the Mojang API rate
+     * limit, and needs to be called from a dedicated thread.</p>
+     *
+     * @param name A player name.
+     * @return The {@link UUID} of the original owner of the name, or {@code null} if it was not
+     *         found.
+     * @throws IOException If an exception occurs while contacting the Mojang API.
+     */
+    public static UUID fetchOriginalWithoutDelay(String name) throws IOException {
+        final User user = fetchOriginalUuid(name);
+        return user != null ? user.uuid : null;
+    }
+
     /**
      * Fetches the UUIDs of the given list of player names from the Mojang API.
      *
@@ -124,7 +124,7 @@ public final class ReducedDebugInfo {
             final Object packet = packetConstructor
                     .newInstance(handle, reduce ? ENABLE_REDUCED_DEBUG_INFO : DISABLE_REDUCED_DEBUG_INFO);
 
-            NMSNetwork.sendPacket(NMSNetwork.getPlayerConnection(handle), packet);
+            NMSNetwork.sendPacket(player, packet);
 
             return true;
         } catch (InvocationTargetException | NoSuchMethodException | InstantiationException
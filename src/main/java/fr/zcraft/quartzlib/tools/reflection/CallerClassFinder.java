@@ -0,0 +1,99 @@
+/*
+ * Copyright or © or Copr. QuartzLib contributors (2015 - 2020)
+ *
+ * This software is governed by the CeCILL-B license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-B
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-B license and that you accept its terms.
+ */
+
+package fr.zcraft.quartzlib.tools.reflection;
+
+/**
+ * Finds the classes in the call stack, for {@link Reflection#getCallerClass()}.
+ *
+ * <p>This is the Java 8 implementation, which loads the classes from the names of the frames of a
+ * full stack trace. The multi-release part of the jar contains a Java 9 implementation of this
+ * class, using a {@code StackWalker} (see {@code src/main/java9}).</p>
+ */
+final class CallerClassFinder {
+    private CallerClassFinder() {
+    }
+
+    /**
+     * Returns the first class in the call stack that can be loaded, skipping some frames.
+     *
+     * @param skip The number of frames to skip, the first one being the frame of the method calling
+     *             this one.
+     * @return The class, or {@code null} if the stack is not deep enough.
+     */
+    static Class<?> find(int skip) {
+        final StackTraceElement[] stackTrace = Thread.currentThread().getStackTrace();
+
+        // 0 is getStackTrace, 1 is this method.
+        for (int i = skip + 2; i < stackTrace.length; i++) {
+            try {
+                return Class.forName(stackTrace[i].getClassName());
+            } catch (ClassNotFoundException ex) {
+                continue;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the first class in the call stack with the specified type, skipping some frames and
+     * the frames of the base type itself.
+     *
+     * @param baseType The type to lookup for.
+     * @param skip     The number of frames to skip, the first one being the frame of the method
+     *                 calling this one.
+     * @param <T>      The looked-up type.
+     * @return The caller class of the specified type, or {@code null} if none found.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> Class<? extends T> find(Class<T> baseType, int skip) {
+        final StackTraceElement[] stackTrace = Thread.currentThread().getStackTrace();
+
+        for (int i = skip + 2; i < stackTrace.length; i++) {
+            if (stackTrace[i].getClassName().equals(baseType.getName())) {
+                continue;
+            }
+
+            final Class<?> caller;
+            try {
+                caller = Class.forName(stackTrace[i].getClassName());
+            } catch (ClassNotFoundException ex) {
+                continue;
+            }
+
+            if (baseType.isAssignableFrom(caller)) {
+                return (Class<? extends T>) caller;
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright or © or Copr. QuartzLib contributors (2015 - 2020)
+ *
+ * This software is governed by the CeCILL-B license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-B
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-B license and that you accept its terms.
+ */
+
+package fr.zcraft.quartzlib.tools.reflection;
+
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Executable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of the members looked up by {@link Reflection}, already made accessible.
+ *
+ * <p>Members are keyed by class, name and parameter types. Failed lookups are cached too, so that
+ * the fallback chains trying several names or signatures (e.g. for different Minecraft versions)
+ * do not walk the class members again each time: the cached miss is reported with a new exception,
+ * without any lookup.</p>
+ *
+ * <p>The members of a class are attached to the class itself, through a {@link ClassValue}, so
+ * that the cache does not keep the classes of unloaded plugins (and their class loaders) alive.
+ * For the same reason, the keys reference the parameter types by name: the parameter types may
+ * come from other class loaders than the looked-up class (e.g. a server class looked up with
+ * plugin classes), which its cache, kept alive as long as the class, must not keep alive. A cached
+ * member is checked against the actual parameter types of the lookup, as two class loaders may
+ * define classes with the same name; a cached miss is shared by the same-named types.</p>
+ */
+final class MemberCache {
+    private static final Object MISSING = new Object();
+    private static final Class<?>[] NO_TYPES = new Class<?>[0];
+
+    private static final ClassValue<Map<List<Object>, Object>> members = new ClassValue<Map<List<Object>, Object>>() {
+        @Override
+        protected Map<List<Object>, Object> computeValue(Class<?> klass) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    private static final AtomicLong resolutions = new AtomicLong();
+
+    private MemberCache() {
+    }
+
+    /**
+     * Returns the accessible field with the given name declared by the given class.
+     *
+     * @param klass The class.
+     * @param name  The name of the field.
+     * @return The field.
+     * @throws NoSuchFieldException if the class does not declare such a field.
+     */
+    static Field getField(Class<?> klass, String name) throws NoSuchFieldException {
+        final Object field = lookup(MemberKind.FIELD, klass, name, NO_TYPES);
+        if (field == MISSING) {
+            throw new NoSuchFieldException(name);
+        }
+        return (Field) field;
+    }
+
+    /**
+     * Returns the first accessible field declared by the given class with a type assignable from
+     * the given type.
+     *
+     * @param klass The class.
+     * @param type  The type of the field.
+     * @return The field.
+     * @throws NoSuchFieldException if the class does not declare such a field.
+     */
+    static Field getField(Class<?> klass, Class<?> type) throws NoSuchFieldException {
+        final Object field = lookup(MemberKind.FIELD_BY_TYPE, klass, null, type);
+        if (field == MISSING) {
+            throw new NoSuchFieldException(
+                    "Class " + klass.getName() + " does not define any field of type " + type.getName());
+        }
+        return (Field) field;
+    }
+
+    /**
+     * Returns the accessible method with the given name and parameter types, public (and possibly
+     * inherited) or declared by the given class.
+     *
+     * @param klass          The class.
+     * @param name           The name of the method.
+     * @param parameterTypes The parameter types of the method.
+     * @return The method, or {@code null} if there is no such method.
+     */
+    static Method findMethod(Class<?> klass, String name, Class<?>... parameterTypes) {
+        final Object method = lookup(MemberKind.METHOD, klass, name, parameterTypes);
+        return method == MISSING ? null : (Method) method;
+    }
+
+    /**
+     * Returns the accessible method with the given name and parameter types, public (and possibly
+     * inherited) or declared by the given class.
+     *
+     * @param klass          The class.
+     * @param name           The name of the method.
+     * @param parameterTypes The parameter types of the method.
+     * @return The method.
+     * @throws NoSuchMethodException if there is no such method.
+     */
+    static Method getMethod(Class<?> klass, String name, Class<?>... parameterTypes) throws NoSuchMethodException {
+        final Method method = findMethod(klass, name, parameterTypes);
+        if (method == null) {
+            throw new NoSuchMethodException(klass.getName() + "." + name + typesToString(parameterTypes));
+        }
+        return method;
+    }
+
+    /**
+     * Returns the accessible constructor with the given parameter types declared by the given class.
+     *
+     * @param klass          The class.
+     * @param parameterTypes The parameter types of the constructor.
+     * @param <T>            The type of the class.
+     * @return The constructor.
+     * @throws NoSuchMethodException if there is no such constructor.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> Constructor<T> getConstructor(Class<T> klass, Class<?>... parameterTypes)
+            throws NoSuchMethodException {
+        final Object constructor = lookup(MemberKind.CONSTRUCTOR, klass, null, parameterTypes);
+        if (constructor == MISSING) {
+            throw new NoSuchMethodException(klass.getName() + ".<init>" + typesToString(parameterTypes));
+        }
+        return (Constructor<T>) constructor;
+    }
+
+    /**
+     * Returns the number of members resolved so far, that is, of lookups which missed the cache.
+     *
+     * @return The number of resolved members.
+     */
+    static long getResolutionCount() {
+        return resolutions.get();
+    }
+
+    private static Object lookup(MemberKind kind, Class<?> klass, String name, Class<?>... parameterTypes) {
+        final Class<?>[] types = parameterTypes != null ? parameterTypes : NO_TYPES;
+        final Map<List<Object>, Object> classMembers = members.get(klass);
+        final List<Object> key = key(kind, name, types);
+        final Object member = classMembers.get(key);
+        if (member != null) {
+            // Another class with the same name was looked up: resolved again, without caching.
+            return member == MISSING || kind.accepts(member, types) ? member : resolve(kind, klass, name, types);
+        }
+
+        // Two threads may resolve the same member at once; only the first result is kept.
+        final Object resolved = resolve(kind, klass, name, types);
+        final Object previous = classMembers.putIfAbsent(key, resolved);
+        return previous != null ? previous : resolved;
+    }
+
+    /**
+     * Builds the key of a member in the cache of its class, referencing the parameter types by
+     * name only.
+     */
+    private static List<Object> key(MemberKind kind, String name, Class<?>[] types) {
+        final Object[] key = new Object[types.length + 2];
+        key[0] = kind.name();
+        key[1] = name;
+        for (int i = 0; i < types.length; i++) {
+            key[i + 2] = types[i] == null ? null : types[i].getName();
+        }
+        return Arrays.asList(key);
+    }
+
+    private static Object resolve(MemberKind kind, Class<?> klass, String name, Class<?>[] types) {
+        resolutions.incrementAndGet();
+
+        final AccessibleObject member;
+        try {
+            member = kind.resolve(klass, name, types);
+        } catch (NoSuchFieldException | NoSuchMethodException ex) {
+            return MISSING;
+        }
+
+        if (member == null) {
+            return MISSING;
+        }
+        member.setAccessible(true);
+        return member;
+    }
+
+    private static String typesToString(Class<?>[] types) {
+        final StringBuilder builder = new StringBuilder("(");
+        for (int i = 0; i < types.length; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(types[i] == null ? "null" : types[i].getName());
+        }
+        return builder.append(')').toString();
+    }
+
+    private enum MemberKind {
+        FIELD {
+            @Override
+            AccessibleObject resolve(Class<?> klass, String name, Class<?>[] types) throws NoSuchFieldException {
+                return klass.getDeclaredField(name);
+            }
+        },
+
+        FIELD_BY_TYPE {
+            @Override
+            AccessibleObject resolve(Class<?> klass, String name, Class<?>[] types) {
+                for (Field field : klass.getDeclaredFields()) {
+                    if (Reflection.typeIsAssignableFrom(field.getType(), types[0])) {
+                        return field;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            boolean accepts(Object member, Class<?>[] types) {
+                return Reflection.typeIsAssignableFrom(((Field) member).getType(), types[0]);
+            }
+        },
+
+        METHOD {
+            @Override
+            AccessibleObject resolve(Class<?> klass, String name, Class<?>[] types) throws NoSuchMethodException {
+                try {
+                    return klass.getMethod(name, types);
+                } catch (NoSuchMethodException ex) {
+                    return klass.getDeclaredMethod(name, types);
+                }
+            }
+
+            @Override
+            boolean accepts(Object member, Class<?>[] types) {
+                return Arrays.equals(((Executable) member).getParameterTypes(), types);
+            }
+        },
+
+        CONSTRUCTOR {
+            @Override
+            AccessibleObject resolve(Class<?> klass, String name, Class<?>[] types) throws NoSuchMethodException {
+                return klass.getDeclaredConstructor(types);
+            }
+
+            @Override
+            boolean accepts(Object member, Class<?>[] types) {
+                return Arrays.equals(((Executable) member).getParameterTypes(), types);
+            }
+        };
+
+        abstract AccessibleObject resolve(Class<?> klass, String name, Class<?>[] types)
+                throws NoSuchFieldException, NoSuchMethodException;
+
+        /**
+         * Checks if a cached member, keyed by the names of the parameter types, was resolved for
+         * these parameter types.
+         */
+        boolean accepts(Object member, Class<?>[] types) {
+            return true;
+        }
+    }
+}
@@ -30,17 +30,45 @@
 
 package fr.zcraft.quartzlib.tools.reflection;
 
+import fr.zcraft.quartzlib.core.QuartzLib;
 import fr.zcraft.quartzlib.exceptions.IncompatibleMinecraftVersionException;
 import fr.zcraft.quartzlib.tools.PluginLogger;
+import fr.zcraft.quartzlib.tools.runners.RunTask;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.Parameter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.server.PluginDisableEvent;
+import org.bukkit.scheduler.BukkitTask;
 
 
 /**
  * An utility used to manipulate packets and players connections with ease.
  *
+ * <p>The connections of the online players are cached, so sending packets to a {@link Player}
+ * does not look up its connection each time. Packets can be sent in batches: see
+ * {@link #setBatching(boolean)}.</p>
+ *
  * @author Amaury Carrade
  */
 public final class NMSNetwork {
@@ -49,6 +77,78 @@ public final class NMSNetwork {
     private static final Class<?> packetClass;
     private static final Method sendPacketMethod;
 
+    /**
+     * The connections of the online players, filled when they join (or on the first lookup) and
+     * evicted when they quit.
+     */
+    private static final Map<UUID, Object> connections = new ConcurrentHashMap<>();
+    private static volatile boolean listening = false;
+    private static BukkitTask listenTask = null;
+
+    /**
+     * The network managers of the players connections, used by the batched mode. Only accessed
+     * from the main thread.
+     */
+    private static final Map<Object, Object> networkManagers = new WeakHashMap<>();
+
+    /**
+     * The network managers written to since the last flush. Only accessed from the main thread.
+     */
+    private static final Set<Object> unflushedNetworkManagers = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * The event fired by Paper at the end of each tick, used to flush the batched packets.
+     */
+    private static final String TICK_END_EVENT = "com.destroystokyo.paper.event.server.ServerTickEndEvent";
+
+    /**
+     * The simple names of the packets which can be batched (Spigot and Mojang mappings): the
+     * scoreboard, tab list, title and entity status packets sent by QuartzLib. For them, the
+     * server's {@code PlayerConnection.sendPacket} only hands the packet to the network manager.
+     * It filters or reacts to some other packets (chat visibility, compass target of the spawn
+     * position...), so they are never batched.
+     */
+    private static final Set<String> BATCHED_PACKETS = new HashSet<>(Arrays.asList(
+            "PacketPlayOutScoreboardObjective", "PacketPlayOutScoreboardScore",
+            "PacketPlayOutScoreboardDisplayObjective", "PacketPlayOutScoreboardTeam",
+            "PacketPlayOutPlayerListHeaderFooter", "PacketPlayOutTitle", "PacketPlayOutEntityStatus",
+            "ClientboundSetObjectivePacket", "ClientboundSetScorePacket", "ClientboundResetScorePacket",
+            "ClientboundSetDisplayObjectivePacket", "ClientboundSetPlayerTeamPacket", "ClientboundTabListPacket",
+            "ClientboundSetTitleTextPacket", "ClientboundSetSubtitleTextPacket", "ClientboundSetTitlesAnimationPacket",
+            "ClientboundClearTitlesPacket", "ClientboundEntityEventPacket"));
+
+    private static final ClassValue<Boolean> batchedPackets = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            return BATCHED_PACKETS.contains(type.getSimpleName());
+        }
+    };
+
+    /**
+     * The {@code processedDisconnect} field added by CraftBukkit to the players connections (or
+     * their superclasses), if any, by class of connection.
+     */
+    private static final ClassValue<Field> disconnectedFields = new ClassValue<Field>() {
+        @Override
+        protected Field computeValue(Class<?> type) {
+            for (Class<?> klass = type; klass != null; klass = klass.getSuperclass()) {
+                try {
+                    final Field field = Reflection.getField(klass, "processedDisconnect");
+                    if (field.getType() == boolean.class) {
+                        return field;
+                    }
+                } catch (NoSuchFieldException e) {
+                    // Declared by a superclass, or not at all.
+                }
+            }
+            return null;
+        }
+    };
+
+    private static volatile boolean batching = false;
+    private static volatile boolean flushingAtTickEnd = false;
+    private static boolean networkManagerWarned = false;
+
     static {
         Class<?> craftPlayerClass1 = null;
         Class<?> entityPlayerClass1 = null;
@@ -163,6 +263,11 @@ public final class NMSNetwork {
     /**
      * Returns the player's connection, frequently used to send packets.
      *
+     * <p>The connections are cached while the players are online (if QuartzLib is initialized):
+     * after the first call, this is a map lookup. This method can be used asynchronously, but the
+     * connections looked up from other threads are not cached, as the players could quit meanwhile;
+     * the connections of the players joining once QuartzLib is initialized are always cached.</p>
+     *
      * @param player The player.
      * @return The player's connection (reflection-retrieved object, instance of the
      *         net.minecraft.server.PlayerConnection class).
@@ -173,7 +278,31 @@ public final class NMSNetwork {
      *                                               connection.
      */
     public static Object getPlayerConnection(Player player) throws InvocationTargetException {
-        return getPlayerConnection(getPlayerHandle(player));
+        final UUID id = player.getUniqueId();
+
+        Object connection = connections.get(id);
+        if (connection == null) {
+            connection = getPlayerConnection(getPlayerHandle(player));
+
+            // On the main thread, the player cannot quit (and be evicted) between the check and the put.
+            if (connection != null && listen() && Bukkit.isPrimaryThread() && player.isOnline()) {
+                connections.put(id, connection);
+            }
+        }
+        return connection;
+    }
+
+    /**
+     * Returns the cached connection of a player, without looking it up if it is not cached.
+     * This method can be used asynchronously.
+     *
+     * @param id The player's UUID.
+     * @return The player's connection (reflection-retrieved object, instance of the
+     *         net.minecraft.server.PlayerConnection class), or {@code null} if the player is offline
+     *         or if its connection was not retrieved yet.
+     */
+    public static Object getCachedPlayerConnection(UUID id) {
+        return connections.get(id);
     }
 
     /**
@@ -200,6 +329,10 @@ public final class NMSNetwork {
                                 + packet.getClass().getName() + ").");
             }
 
+            if (batching && Bukkit.isPrimaryThread() && sendBatched(playerConnection, packet)) {
+                return;
+            }
+
             sendPacketMethod.invoke(playerConnection, packet);
         } catch (IllegalAccessException e) {
             throw new IncompatibleMinecraftVersionException(
@@ -209,10 +342,8 @@ public final class NMSNetwork {
     }
 
     /**
-     * Sends a packet.
-     * <p>If you use this method, the player connection is not cached. If you have multiple packets to
-     * send, store the player's connection returned by {@link #getPlayerConnection(Player)} and then
-     * use the {@link #sendPacket(Object, Object)} method.</p>
+     * Sends a packet, using the cached connection of the player (see
+     * {@link #getPlayerConnection(Player)}).
      *
      * @param player The player this packet will be sent to.
      * @param packet The packet to be sent, an instance of a subclass of the
@@ -228,4 +359,316 @@ public final class NMSNetwork {
     public static void sendPacket(Player player, Object packet) throws InvocationTargetException {
         sendPacket(getPlayerConnection(player), packet);
     }
+
+    /**
+     * Registers the listener keeping the cached connections up to date, if not already registered.
+     * Bukkit listeners can only be registered from the main thread: if called from another thread,
+     * the registration is scheduled for the next tick.
+     *
+     * @return {@code true} if the connections can be cached, i.e. if the listener is registered.
+     */
+    private static boolean listen() {
+        if (!listening) {
+            synchronized (connections) {
+                if (!listening) {
+                    if (!QuartzLib.isInitialized()) {
+                        return false;
+                    }
+
+                    if (!Bukkit.isPrimaryThread()) {
+                        // Scheduled again if cancelled, e.g. by a reload.
+                        if (listenTask == null || listenTask.isCancelled()) {
+                            listenTask = RunTask.nextTick(NMSNetwork::listen);
+                        }
+                        return false;
+                    }
+
+                    flushingAtTickEnd = flushAtTickEnd(QuartzLib.registerEvents(new ConnectionsListener()));
+                    listenTask = null;
+                    listening = true;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Flushes the batched packets at the end of each tick, if the server fires an event there.
+     *
+     * @return {@code true} if the listener was registered for this event; otherwise, the batched
+     *         packets are flushed at the next tick.
+     */
+    private static boolean flushAtTickEnd(Listener listener) {
+        final Class<? extends Event> tickEndEvent;
+        try {
+            tickEndEvent = Class.forName(TICK_END_EVENT).asSubclass(Event.class);
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+
+        Bukkit.getPluginManager().registerEvent(tickEndEvent, listener, EventPriority.MONITOR,
+                (l, ev) -> flush(), QuartzLib.getPlugin());
+        return true;
+    }
+
+    /**
+     * Enables or disables the batched sending of packets.
+     *
+     * <p>By default, each packet sent through {@link #sendPacket(Object, Object)} is written and
+     * flushed to the player's network channel right away, costing a system call per packet. When
+     * batching is enabled, the scoreboard, tab list, title and entity status packets sent from the
+     * main thread are handed to the server's network manager without being flushed, and each
+     * player's channel is flushed once, at the end of the current tick on servers firing an event
+     * there (Paper), or at the beginning of the next tick otherwise. This greatly reduces the
+     * network overhead of senders sending a lot of packets at once (e.g. a sidebar rebuild sends
+     * about twenty packets per player).</p>
+     *
+     * <p>Batched packets skip the server's {@code PlayerConnection.sendPacket}, which does nothing
+     * more for these packet types (except dropping the packets sent to a disconnected player, which
+     * is checked too). The other packets, which it may filter or react to (chat, spawn position...),
+     * and the packets sent from other threads, are still sent right away through it.</p>
+     *
+     * <p>The batched packets go through the network manager like any other packet, so they are
+     * queued if the connection is not ready yet. Batching requires QuartzLib to be initialized. If
+     * the network manager cannot be used on this server version, batching is not enabled; if the
+     * network manager of a connection cannot be retrieved, the packets sent to it are sent one by
+     * one.</p>
+     *
+     * @param batching {@code true} to batch the packets sent from the main thread.
+     */
+    public static void setBatching(boolean batching) {
+        NMSNetwork.batching = batching && PacketBatcher.ERROR == null;
+
+        if (batching && PacketBatcher.ERROR != null) {
+            PluginLogger.warning("Cannot batch network packets on this server version, they will be sent one by one",
+                    PacketBatcher.ERROR);
+        }
+    }
+
+    /**
+     * Checks if the packets sent from the main thread are batched.
+     *
+     * @return {@code true} if packets are batched. See {@link #setBatching(boolean)}.
+     */
+    public static boolean isBatching() {
+        return batching;
+    }
+
+    /**
+     * Flushes the network channels of the connections to which batched packets were sent, instead
+     * of waiting for the end of the tick. Must be called from the main thread.
+     */
+    public static void flush() {
+        for (final Object networkManager : unflushedNetworkManagers) {
+            try {
+                final Object channel = PacketBatcher.CHANNEL.invokeExact(networkManager);
+                if (channel != null) {
+                    PacketBatcher.FLUSH.invokeExact(channel);
+                }
+            } catch (Throwable e) {
+                PluginLogger.error("Unable to flush a player's network channel", e);
+            }
+        }
+
+        unflushedNetworkManagers.clear();
+    }
+
+    /**
+     * Sends a packet through the network manager of a connection without flushing it, and schedules
+     * the flush.
+     *
+     * @return {@code false} if the packet cannot be batched, and must be sent right away.
+     */
+    private static boolean sendBatched(Object playerConnection, Object packet) throws InvocationTargetException {
+        if (!batchedPackets.get(packet.getClass()) || isDisconnected(playerConnection)) {
+            return false;
+        }
+
+        final Object networkManager = getNetworkManager(playerConnection);
+        if (networkManager == null || !listen()) {
+            return false;
+        }
+
+        try {
+            PacketBatcher.SEND.invokeExact(networkManager, packet);
+        } catch (Throwable e) {
+            throw new InvocationTargetException(e);
+        }
+
+        if (unflushedNetworkManagers.isEmpty() && !flushingAtTickEnd) {
+            RunTask.nextTickLight(NMSNetwork::flush);
+        }
+        unflushedNetworkManagers.add(networkManager);
+        return true;
+    }
+
+    /**
+     * Checks if the server processed the disconnection of a connection, in which case
+     * {@code PlayerConnection.sendPacket} drops the packets sent to it.
+     */
+    private static boolean isDisconnected(Object playerConnection) {
+        final Field field = disconnectedFields.get(playerConnection.getClass());
+        try {
+            return field != null && field.getBoolean(playerConnection);
+        } catch (IllegalAccessException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the network manager of a player connection, or {@code null} if it cannot be
+     * retrieved: the packets sent to this connection are then not batched.
+     */
+    private static Object getNetworkManager(Object playerConnection) {
+        Object networkManager = networkManagers.get(playerConnection);
+        if (networkManager == null) {
+            try {
+                networkManager = getFieldByType(playerConnection, PacketBatcher.NETWORK_MANAGER);
+            } catch (NoSuchFieldException | IllegalAccessException e) {
+                if (!networkManagerWarned) {
+                    networkManagerWarned = true;
+                    PluginLogger.warning("Cannot retrieve the network manager of a player connection, the packets "
+                            + "sent to it will not be batched", e);
+                }
+                return null;
+            }
+
+            if (networkManager != null) {
+                networkManagers.put(playerConnection, networkManager);
+            }
+        }
+        return networkManager;
+    }
+
+    /**
+     * Returns the value of the first field of the given type, declared by the class of the
+     * instance or by one of its superclasses.
+     */
+    private static Object getFieldByType(Object instance, Class<?> type)
+            throws NoSuchFieldException, IllegalAccessException {
+        for (Class<?> klass = instance.getClass(); klass != null; klass = klass.getSuperclass()) {
+            final Field field;
+            try {
+                field = Reflection.getField(klass, type);
+            } catch (NoSuchFieldException e) {
+                continue;
+            }
+            return field.get(instance);
+        }
+
+        throw new NoSuchFieldException(
+                "Class " + instance.getClass().getName() + " does not have any field of type " + type.getName());
+    }
+
+    /**
+     * The accessors sending packets through the network managers without flushing them, and
+     * flushing their Netty channels, used by the batched mode. They are only looked up when
+     * batching is enabled.
+     */
+    private static final class PacketBatcher {
+        private static final Class<?> NETWORK_MANAGER;
+        private static final MethodHandle SEND;
+        private static final MethodHandle CHANNEL;
+        private static final MethodHandle FLUSH;
+        private static final ReflectiveOperationException ERROR;
+
+        static {
+            Class<?> networkManager = null;
+            MethodHandle send = null;
+            MethodHandle channel = null;
+            MethodHandle flush = null;
+            ReflectiveOperationException exception = null;
+
+            try {
+                try {
+                    networkManager = Reflection.getMinecraft1_17ClassByName("network.NetworkManager");
+                } catch (ClassNotFoundException e) {
+                    networkManager = Reflection.getMinecraftClassByName("NetworkManager");
+                }
+
+                // send(packet, listener, flush), called without listener and without flush.
+                final Method sendMethod = findSendMethod(networkManager);
+                send = MethodHandles.insertArguments(
+                        Reflection.invoker(networkManager, sendMethod.getName(), sendMethod.getParameterTypes()),
+                        2, null, false);
+
+                final Class<?> channelClass = Class.forName("io.netty.channel.Channel");
+                final Field channelField = Reflection.getField(networkManager, channelClass);
+                channel = Reflection.getter(networkManager, channelField.getName());
+                flush = discardResult(Reflection.invoker(channelClass, "flush"));
+            } catch (ReflectiveOperationException e) {
+                exception = e;
+            }
+
+            NETWORK_MANAGER = networkManager;
+            SEND = send;
+            CHANNEL = channel;
+            FLUSH = flush;
+            ERROR = exception;
+        }
+
+        /**
+         * Finds the public method of the network manager sending a packet with an optional
+         * listener, and flushing the channel only if its last parameter is {@code true}. Its name
+         * changes with the mappings, but not its signature.
+         */
+        private static Method findSendMethod(Class<?> networkManager) throws NoSuchMethodException {
+            for (final Method method : networkManager.getMethods()) {
+                final Class<?>[] parameters = method.getParameterTypes();
+                if (!Modifier.isStatic(method.getModifiers()) && parameters.length == 3
+                        && parameters[0] == packetClass && parameters[2] == boolean.class) {
+                    return method;
+                }
+            }
+
+            throw new NoSuchMethodException(
+                    "Class " + networkManager.getName() + " does not have any method sending packets without flush");
+        }
+
+        /**
+         * Adapts a handle to return {@code void}: the futures returned by Netty are not needed.
+         */
+        private static MethodHandle discardResult(MethodHandle handle) {
+            return handle.asType(handle.type().changeReturnType(void.class));
+        }
+    }
+
+    /**
+     * Caches the connections of the players when they join, before the other listeners send them
+     * packets, and evicts them when they quit, after. Forgets everything when the plugin is
+     * disabled, as Bukkit unregisters this listener.
+     */
+    private static final class ConnectionsListener implements Listener {
+        @EventHandler(priority = EventPriority.LOWEST)
+        public void onPlayerJoin(PlayerJoinEvent ev) {
+            final Player player = ev.getPlayer();
+            try {
+                connections.put(player.getUniqueId(), getPlayerConnection(getPlayerHandle(player)));
+            } catch (InvocationTargetException | RuntimeException e) {
+                // Retrieved (and reported) again on the next lookup.
+                connections.remove(player.getUniqueId());
+            }
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onPlayerQuit(PlayerQuitEvent ev) {
+            connections.remove(ev.getPlayer().getUniqueId());
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onPluginDisable(PluginDisableEvent ev) {
+            if (ev.getPlugin() != QuartzLib.getPlugin()) {
+                return;
+            }
+
+            // The scheduled flush, if any, is cancelled with the plugin's tasks.
+            flush();
+
+            synchronized (connections) {
+                listening = false;
+                flushingAtTickEnd = false;
+                connections.clear();
+            }
+        }
+    }
 }
@@ -31,10 +31,14 @@
 package fr.zcraft.quartzlib.tools.reflection;
 
 import fr.zcraft.quartzlib.tools.PluginLogger;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
@@ -47,10 +51,16 @@ import org.bukkit.Bukkit;
 /**
  * A set of tools to simplify reflective operations on Bukkit and the Native Minecraft Server.
  *
+ * <p>The fields, methods and constructors looked up by name and types are cached, already made
+ * accessible, and so are the failed lookups: calling these methods repeatedly (e.g. for each
+ * packet) does not walk the class members again.</p>
+ *
  * @author ProkopyL
  * @author Amaury Carrade
  */
 public final class Reflection {
+    private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
     private Reflection() {
     }
 
@@ -167,9 +177,7 @@ public final class Reflection {
      * @throws NoSuchFieldException if the class does not contains any field with this name.
      */
     public static Field getField(Class<?> klass, String name) throws NoSuchFieldException {
-        Field field = klass.getDeclaredField(name);
-        field.setAccessible(true);
-        return field;
+        return MemberCache.getField(klass, name);
     }
 
     /**
@@ -182,15 +190,7 @@ public final class Reflection {
      * @throws NoSuchFieldException if the class does not contains any field with this name.
      */
     public static Field getField(Class<?> klass, Class<?> type) throws NoSuchFieldException {
-        for (Field field : klass.getDeclaredFields()) {
-            if (typeIsAssignableFrom(field.getType(), type)) {
-                field.setAccessible(true);
-                return field;
-            }
-        }
-
-        throw new NoSuchFieldException(
-                "Class " + klass.getName() + " does not define any field of type " + type.getName());
+        return MemberCache.getField(klass, type);
     }
 
 
@@ -308,17 +308,25 @@ public final class Reflection {
      */
     public static Object call(Class<?> klass, Object instance, String name, Object... parameters)
             throws NoSuchMethodException, IllegalAccessException, IllegalArgumentException, InvocationTargetException {
-        Method method;
-        final Class<?>[] types = getTypes(parameters);
-
-        try {
-            method = klass.getMethod(name, types);
-        } catch (NoSuchMethodException ex) {
-            method = klass.getDeclaredMethod(name, types);
-        }
+        return MemberCache.getMethod(klass, name, getTypes(parameters)).invoke(instance, parameters);
+    }
 
-        method.setAccessible(true);
-        return method.invoke(instance, parameters);
+    /**
+     * Returns the method with the given name and parameter types, public (and possibly inherited)
+     * or declared by the given class, made accessible.
+     *
+     * <p>Unlike {@link #call(Class, Object, String, Object...)}, the parameter types are given
+     * explicitly, so this can be used for methods with primitive parameters.</p>
+     *
+     * @param klass          The class.
+     * @param name           The name of the method.
+     * @param parameterTypes The parameter types of the method.
+     * @return The {@link Method}.
+     * @throws NoSuchMethodException if no such method exists in the class.
+     */
+    public static Method getMethod(Class<?> klass, String name, Class<?>... parameterTypes)
+            throws NoSuchMethodException {
+        return MemberCache.getMethod(klass, name, parameterTypes);
     }
 
     /**
@@ -331,15 +339,10 @@ public final class Reflection {
      */
     public static boolean hasMethod(Class<?> klass, String name, Class<?>... parameterTypes) {
         try {
-            try {
-                klass.getMethod(name, parameterTypes);
-            } catch (NoSuchMethodException ex) {
-                klass.getDeclaredMethod(name, parameterTypes);
-            }
-        } catch (NoSuchMethodException | SecurityException ex) {
+            return MemberCache.findMethod(klass, name, parameterTypes) != null;
+        } catch (SecurityException ex) {
             return false;
         }
-        return true;
     }
 
     public static Method findMethod(Class<?> klass, String name, Type... parameterTypes) {
@@ -477,9 +480,7 @@ public final class Reflection {
     public static <T> T instantiate(Class<T> klass, Object... parameters)
             throws NoSuchMethodException, InstantiationException,
             IllegalAccessException, IllegalArgumentException, InvocationTargetException {
-        Constructor<T> constructor = klass.getDeclaredConstructor(getTypes(parameters));
-        constructor.setAccessible(true);
-        return constructor.newInstance(parameters);
+        return MemberCache.getConstructor(klass, getTypes(parameters)).newInstance(parameters);
     }
 
     /**
@@ -495,6 +496,101 @@ public final class Reflection {
     }
 
 
+    /**
+     * Returns a method handle reading the field with the given name (regardless of its visibility).
+     *
+     * <p>The handles returned by {@link #getter}, {@link #setter}, {@link #invoker} and
+     * {@link #constructor} take and return {@link Object}s (primitives are boxed; {@code void}
+     * stays {@code void}), so they can be called with {@code invokeExact} without knowing the NMS
+     * types at compile time. Unlike {@link Field#get(Object)} or {@link Method#invoke(Object,
+     * Object...)}, they do not check the access on each call: stored in a {@code static final}
+     * field, they can be inlined by the JIT.</p>
+     *
+     * <pre>{@code
+     * private static final MethodHandle GET_PING = Reflection.getter(entityPlayerClass, "ping");
+     * int ping = (int) (Object) GET_PING.invokeExact((Object) entityPlayer);
+     * }</pre>
+     *
+     * @param klass The field's parent class.
+     * @param name  The field's name.
+     * @return A handle of type {@code (Object)Object}, or {@code ()Object} for a static field.
+     * @throws NoSuchFieldException   if the class does not contains any field with this name.
+     * @throws IllegalAccessException if the field cannot be made accessible.
+     */
+    public static MethodHandle getter(Class<?> klass, String name)
+            throws NoSuchFieldException, IllegalAccessException {
+        return erase(lookup.unreflectGetter(getField(klass, name)));
+    }
+
+    /**
+     * Returns a method handle writing the field with the given name (regardless of its
+     * visibility). See {@link #getter(Class, String)}.
+     *
+     * <p>Final fields are rejected, static or not: the JVM may have folded their value into the
+     * code reading them, so a write would not be reliably seen.</p>
+     *
+     * @param klass The field's parent class.
+     * @param name  The field's name.
+     * @return A handle of type {@code (Object, Object)void}, or {@code (Object)void} for a static
+     *         field.
+     * @throws NoSuchFieldException   if the class does not contains any field with this name.
+     * @throws IllegalAccessException if the field is final, or cannot be made accessible.
+     */
+    public static MethodHandle setter(Class<?> klass, String name)
+            throws NoSuchFieldException, IllegalAccessException {
+        final Field field = getField(klass, name);
+        if (Modifier.isFinal(field.getModifiers())) {
+            throw new IllegalAccessException("Cannot create a setter for the final field " + field);
+        }
+
+        return erase(lookup.unreflectSetter(field));
+    }
+
+    /**
+     * Returns a method handle calling the method with the given name and parameter types,
+     * public (and possibly inherited) or declared by the given class, regardless of its visibility.
+     * See {@link #getter(Class, String)}.
+     *
+     * @param klass          The method's parent class.
+     * @param name           The method's name.
+     * @param parameterTypes The method's parameter types.
+     * @return A handle taking the instance (unless the method is static) then the parameters, all
+     *         typed as {@code Object}, and returning an {@code Object} (or {@code void}).
+     * @throws NoSuchMethodException  if no such method exists in the class.
+     * @throws IllegalAccessException if the method cannot be made accessible.
+     */
+    public static MethodHandle invoker(Class<?> klass, String name, Class<?>... parameterTypes)
+            throws NoSuchMethodException, IllegalAccessException {
+        return erase(lookup.unreflect(getMethod(klass, name, parameterTypes)));
+    }
+
+    /**
+     * Returns a method handle calling the constructor with the given parameter types of the given
+     * class, regardless of its visibility. See {@link #getter(Class, String)}.
+     *
+     * @param klass          The class to instantiate.
+     * @param parameterTypes The constructor's parameter types.
+     * @return A handle taking the parameters, all typed as {@code Object}, and returning the new
+     *         instance as an {@code Object}.
+     * @throws NoSuchMethodException  if no such constructor exists in the class.
+     * @throws IllegalAccessException if the constructor cannot be made accessible.
+     */
+    public static MethodHandle constructor(Class<?> klass, Class<?>... parameterTypes)
+            throws NoSuchMethodException, IllegalAccessException {
+        return erase(lookup.unreflectConstructor(MemberCache.getConstructor(klass, parameterTypes)));
+    }
+
+    /**
+     * Adapts a handle to take and return {@code Object}s, keeping a {@code void} return type.
+     */
+    private static MethodHandle erase(MethodHandle handle) {
+        MethodType type = MethodType.genericMethodType(handle.type().parameterCount());
+        if (handle.type().returnType() == void.class) {
+            type = type.changeReturnType(void.class);
+        }
+        return handle.asType(type);
+    }
+
     /**
      * Returns an array of the same size of the given array, containing the types of the objects in
      * the given array, in the same order.
@@ -519,20 +615,8 @@ public final class Reflection {
      * @return The caller class.
      */
     public static Class<?> getCallerClass() {
-        final StackTraceElement[] stackTrace = Thread.currentThread().getStackTrace();
-
-        for (int i = 3; i < stackTrace.length; i++) {
-            final Class<?> caller;
-            try {
-                caller = Class.forName(stackTrace[i].getClassName());
-            } catch (ClassNotFoundException ex) {
-                continue;
-            }
-
-            return caller;
-        }
-
-        return null;
+        // Skips this method and the one calling it.
+        return CallerClassFinder.find(2);
     }
 
     /**
@@ -543,26 +627,8 @@ public final class Reflection {
      * @return The caller class of the specified type, or {@code null} if none found.
      */
     public static <T> Class<? extends T> getCallerClass(Class<T> baseType) {
-        final StackTraceElement[] stackTrace = Thread.currentThread().getStackTrace();
-
-        for (int i = 2; i < stackTrace.length; i++) {
-            if (stackTrace[i].getClassName().equals(baseType.getName())) {
-                continue;
-            }
-
-            final Class caller;
-            try {
-                caller = Class.forName(stackTrace[i].getClassName());
-            } catch (ClassNotFoundException ex) {
-                continue;
-            }
-
-            if (baseType.isAssignableFrom(caller)) {
-                return caller;
-            }
-        }
-
-        return null;
+        // Skips this method.
+        return CallerClassFinder.find(baseType, 1);
     }
 
     /**
@@ -0,0 +1,220 @@
+/*
+ * Copyright or © or Copr. QuartzLib contributors (2015 - 2020)
+ *
+ * This software is governed by the CeCILL-B license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-B
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-B license and that you accept its terms.
+ */
+
+package fr.zcraft.quartzlib.tools.runners;
+
+import fr.zcraft.quartzlib.core.QuartzLib;
+import java.util.Iterator;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import org.bukkit.scheduler.BukkitRunnable;
+
+/**
+ * A large job run on the main thread in slices, a slice per tick, each slice running until a time
+ * budget is spent.
+ *
+ * <p>Budgeted tasks are created with the {@code RunTask.budgeted} methods. They expose their
+ * progress, and a future completed once all the job is done (or completed exceptionally if the job
+ * failed or was cancelled).</p>
+ */
+public final class BudgetedTask {
+    private final BooleanSupplier step;
+    private final long budget;
+    private final long total;
+    private final CompletableFuture<Long> completion = new CompletableFuture<>();
+    private final BukkitRunnable runnable;
+    private volatile long processed = 0;
+
+    /**
+     * Creates a budgeted task.
+     *
+     * @param step   A step of the job, returning {@code false} once the job is done.
+     * @param budget The time budget per tick, in milliseconds.
+     * @param total  The number of steps of the job, or {@code -1} if unknown.
+     */
+    private BudgetedTask(BooleanSupplier step, long budget, long total) {
+        this.step = step;
+        this.budget = TimeUnit.MILLISECONDS.toNanos(Math.max(budget, 0));
+        this.total = total;
+        this.runnable = new BukkitRunnable() {
+            @Override
+            public void run() {
+                runSlice();
+            }
+        };
+    }
+
+    /**
+     * Starts a budgeted task running a job step by step.
+     *
+     * @param step   A step of the job, returning {@code true} if there is more to do, and
+     *               {@code false} once the job is done.
+     * @param budget The time the job may use at each tick, in milliseconds. At least one step is
+     *               run per tick, whatever the budget.
+     * @return The running task.
+     */
+    static BudgetedTask start(BooleanSupplier step, long budget) {
+        return new BudgetedTask(step, budget, -1).start();
+    }
+
+    /**
+     * Starts a budgeted task applying an action to the elements of an iterator.
+     *
+     * @param iterator The elements to process.
+     * @param action   The action to apply to each element.
+     * @param budget   The time the task may use at each tick, in milliseconds.
+     * @param total    The number of elements, or {@code -1} if unknown.
+     * @param <T>      The type of the elements.
+     * @return The running task.
+     */
+    static <T> BudgetedTask start(Iterator<T> iterator, Consumer<? super T> action, long budget, long total) {
+        final BudgetedTask task = new BudgetedTask(() -> {
+            action.accept(iterator.next());
+            return iterator.hasNext();
+        }, budget, total);
+
+        if (!iterator.hasNext()) {
+            task.completion.complete(0L);
+            return task;
+        }
+        return task.start();
+    }
+
+    private BudgetedTask start() {
+        runnable.runTaskTimer(QuartzLib.getPlugin(), 0, 1);
+        return this;
+    }
+
+    private void runSlice() {
+        // The completion future may have been completed or cancelled directly by its users.
+        if (completion.isDone()) {
+            runnable.cancel();
+            return;
+        }
+
+        final long deadline = System.nanoTime() + budget;
+        long done = processed;
+        boolean more;
+
+        try {
+            do {
+                more = step.getAsBoolean();
+                done++;
+            } while (more && !completion.isDone() && System.nanoTime() - deadline < 0);
+        } catch (Throwable ex) {
+            processed = done;
+            runnable.cancel();
+            completion.completeExceptionally(ex);
+            return;
+        }
+
+        processed = done;
+        if (!more) {
+            runnable.cancel();
+            completion.complete(done);
+        }
+    }
+
+    /**
+     * Cancels the task. The steps not run yet are never run, and the completion future is
+     * completed with a {@link CancellationException}.
+     *
+     * @return {@code true} if the task was cancelled, {@code false} if it was already done.
+     */
+    public boolean cancel() {
+        // Unlike CompletableFuture.cancel, which also returns true if the future was already
+        // cancelled, this only succeeds once.
+        if (!completion.completeExceptionally(new CancellationException("The task was cancelled"))) {
+            return false;
+        }
+        runnable.cancel();
+        return true;
+    }
+
+    /**
+     * Returns a future completed with the number of processed steps (or elements) once the job is
+     * done. It is completed exceptionally with the exception thrown by a step if the job failed, or
+     * with a {@link CancellationException} if the task was cancelled.
+     *
+     * <p>Completing or cancelling this future stops the task, as {@link #cancel()}: no step is run
+     * after it.</p>
+     *
+     * @return The completion future.
+     */
+    public CompletableFuture<Long> getCompletion() {
+        return completion;
+    }
+
+    /**
+     * Checks if the job is done, failed or was cancelled.
+     *
+     * @return {@code true} if the task will not run anymore.
+     */
+    public boolean isDone() {
+        return completion.isDone();
+    }
+
+    /**
+     * Returns the number of steps (or elements) processed so far.
+     *
+     * @return The number of processed steps.
+     */
+    public long getProcessed() {
+        return processed;
+    }
+
+    /**
+     * Returns the number of steps (or elements) of the job, if known.
+     *
+     * @return The total number of steps, or {@code -1} if unknown.
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Returns the progress of the job, if its size is known.
+     *
+     * @return The progress, between {@code 0} and {@code 1}, or {@code -1} if the size of the job
+     *         is unknown.
+     */
+    public double getProgress() {
+        if (total < 0) {
+            return completion.isDone() && !completion.isCompletedExceptionally() ? 1 : -1;
+        }
+        if (total == 0) {
+            return 1;
+        }
+        return Math.min((double) processed / total, 1);
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright or © or Copr. QuartzLib contributors (2015 - 2020)
+ *
+ * This software is governed by the CeCILL-B license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-B
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-B license and that you accept its terms.
+ */
+
+package fr.zcraft.quartzlib.tools.runners;
+
+import fr.zcraft.quartzlib.core.QuartzLib;
+import fr.zcraft.quartzlib.tools.PluginLogger;
+import java.util.ArrayList;
+import java.util.List;
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Runs the tasks deferred with {@link RunTask#laterLight(Runnable, long)}, from a single Bukkit
+ * task driving a {@link TimingWheel}.
+ *
+ * <p>The wheel only counts the ticks it is advanced by, as the Bukkit API does not expose the
+ * current server tick. A task deferred from one of the tasks of the wheel expires exactly after its
+ * delay; a task deferred from anywhere else may have been deferred before or after the wheel was
+ * advanced in the current tick, and is therefore counted from the next advance: it runs after its
+ * delay, or one tick later, but never earlier.</p>
+ *
+ * <p>The Bukkit task only runs while tasks are pending: it stops after a second without any task,
+ * and is started again by the next deferred task.</p>
+ */
+final class DelayedTaskQueue {
+    private static final int IDLE_TICKS_BEFORE_STOP = 20;
+
+    private static final TimingWheel wheel = new TimingWheel();
+    private static final List<LightTask> expired = new ArrayList<>();
+    private static final Object lock = new Object();
+    private static BukkitTask task;
+    private static boolean dispatching = false;
+    private static int idleTicks = 0;
+
+    private DelayedTaskQueue() {
+    }
+
+    /**
+     * Defers a task.
+     *
+     * @param runnable The task.
+     * @param delay    The delay, in ticks.
+     * @return The handle of the deferred task.
+     */
+    static LightTask schedule(Runnable runnable, long delay) {
+        final LightTask lightTask = new LightTask(runnable);
+        synchronized (lock) {
+            final boolean exact = dispatching && Bukkit.isPrimaryThread();
+            wheel.add(lightTask, wheel.getCurrentTick() + Math.max(delay, 1) + (exact ? 0 : 1));
+            if (!RunTask.isRunning(task)) {
+                idleTicks = 0;
+                task = Bukkit.getScheduler().runTaskTimer(QuartzLib.getPlugin(), DelayedTaskQueue::tick, 0, 1);
+            }
+        }
+        return lightTask;
+    }
+
+    /**
+     * Cancels a deferred task.
+     *
+     * @param lightTask The task.
+     * @return {@code true} if the task was cancelled before being run.
+     */
+    static boolean cancel(LightTask lightTask) {
+        synchronized (lock) {
+            if (lightTask.isCancelled() || lightTask.started) {
+                return false;
+            }
+            wheel.remove(lightTask);
+            lightTask.markCancelled();
+            return true;
+        }
+    }
+
+    private static void tick() {
+        synchronized (lock) {
+            wheel.advance(expired);
+            if (!expired.isEmpty() || wheel.size() > 0) {
+                idleTicks = 0;
+            } else if (++idleTicks >= IDLE_TICKS_BEFORE_STOP) {
+                task.cancel();
+                task = null;
+            }
+
+            if (expired.isEmpty()) {
+                return;
+            }
+            dispatching = true;
+        }
+
+        try {
+            for (LightTask lightTask : expired) {
+                // A task may be cancelled by a previous task of the same tick.
+                synchronized (lock) {
+                    if (lightTask.isCancelled()) {
+                        continue;
+                    }
+                    lightTask.started = true;
+                }
+
+                try {
+                    lightTask.runnable.run();
+                } catch (Throwable ex) {
+                    PluginLogger.error("Exception thrown by a delayed task", ex);
+                }
+            }
+        } finally {
+            expired.clear();
+            synchronized (lock) {
+                dispatching = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright or © or Copr. QuartzLib contributors (2015 - 2020)
+ *
+ * This software is governed by the CeCILL-B license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-B
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-B license and that you accept its terms.
+ */
+
+package fr.zcraft.quartzlib.tools.runners;
+
+/**
+ * A task deferred with {@link RunTask#laterLight(Runnable, long)}, which can be cancelled.
+ */
+public final class LightTask {
+    final Runnable runnable;
+    long expiry;
+    TimingWheel.Slot slot;
+    LightTask previous;
+    LightTask next;
+    boolean started = false;
+    private volatile boolean cancelled = false;
+
+    LightTask(Runnable runnable) {
+        this.runnable = runnable;
+    }
+
+    /**
+     * Cancels this task, if it was not run yet. This takes constant time.
+     *
+     * @return {@code true} if the task was cancelled, {@code false} if it was already run or
+     *         cancelled.
+     */
+    public boolean cancel() {
+        return DelayedTaskQueue.cancel(this);
+    }
+
+    /**
+     * Checks if this task was cancelled.
+     *
+     * @return {@code true} if this task was cancelled.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    void markCancelled() {
+        cancelled = true;
+    }
+}
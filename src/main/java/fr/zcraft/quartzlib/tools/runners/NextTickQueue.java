@@ -0,0 +1,125 @@
+/*
+ * Copyright or © or Copr. QuartzLib contributors (2015 - 2020)
+ *
+ * This software is governed by the CeCILL-B license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-B
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-B license and that you accept its terms.
+ */
+
+package fr.zcraft.quartzlib.tools.runners;
+
+import fr.zcraft.quartzlib.core.QuartzLib;
+import fr.zcraft.quartzlib.tools.PluginLogger;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Runs the tasks deferred to the next tick with {@link RunTask#nextTickLight(Runnable)}, from a
+ * single Bukkit task.
+ *
+ * <p>Tasks are posted to a lock-free queue. At every tick, the Bukkit task runs all the tasks posted
+ * since its previous run, in posting order; the tasks posted while they run (e.g. nested
+ * deferrals) are run at the next tick. This is weaker than {@link RunTask#nextTick(Runnable)}: a
+ * task posted earlier in the same tick (e.g. by another Bukkit task run before this one) is run in
+ * this tick.</p>
+ *
+ * <p>The Bukkit task only runs while tasks are posted: it stops after a second without any task,
+ * and is started again by the next posted task.</p>
+ */
+final class NextTickQueue {
+    private static final int IDLE_TICKS_BEFORE_STOP = 20;
+
+    private static final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private static final ArrayDeque<Runnable> batch = new ArrayDeque<>();
+    private static final Object taskLock = new Object();
+    private static volatile BukkitTask task;
+    private static int idleTicks = 0;
+
+    private NextTickQueue() {
+    }
+
+    /**
+     * Posts a task to run at the next tick.
+     *
+     * @param runnable The task.
+     */
+    static void post(Runnable runnable) {
+        tasks.add(runnable);
+        if (!RunTask.isRunning(task)) {
+            startTask();
+        }
+    }
+
+    private static void startTask() {
+        synchronized (taskLock) {
+            if (!RunTask.isRunning(task)) {
+                idleTicks = 0;
+                task = Bukkit.getScheduler().runTaskTimer(QuartzLib.getPlugin(), NextTickQueue::tick, 0, 1);
+            }
+        }
+    }
+
+    /**
+     * Stops the Bukkit task. A task posted while stopping restarts it: either it was added before
+     * the Bukkit task was cleared, and is seen by the last check, or it sees that there is no task.
+     */
+    private static void stopTask() {
+        synchronized (taskLock) {
+            if (task != null) {
+                task.cancel();
+                task = null;
+            }
+            if (!tasks.isEmpty()) {
+                startTask();
+            }
+        }
+    }
+
+    private static void tick() {
+        Runnable runnable;
+        while ((runnable = tasks.poll()) != null) {
+            batch.add(runnable);
+        }
+
+        if (batch.isEmpty()) {
+            if (++idleTicks >= IDLE_TICKS_BEFORE_STOP) {
+                stopTask();
+            }
+            return;
+        }
+
+        idleTicks = 0;
+        while ((runnable = batch.poll()) != null) {
+            try {
+                runnable.run();
+            } catch (Throwable ex) {
+                PluginLogger.error("Exception thrown by a next-tick task", ex);
+            }
+        }
+    }
+}
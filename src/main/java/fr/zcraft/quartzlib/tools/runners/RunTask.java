@@ -31,6 +31,10 @@
 package fr.zcraft.quartzlib.tools.runners;
 
 import fr.zcraft.quartzlib.core.QuartzLib;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 import org.bukkit.Bukkit;
 import org.bukkit.scheduler.BukkitRunnable;
 import org.bukkit.scheduler.BukkitScheduler;
@@ -46,6 +50,19 @@ public final class RunTask {
     private RunTask() {
     }
 
+    /**
+     * Checks if a repeating task driving one of the light task queues is still running. The queues
+     * keep their task in a static field, which outlives the plugin: when the plugin is disabled,
+     * Bukkit cancels the task, and the next deferral must start a new one (for the new plugin
+     * instance, if it was reloaded).
+     *
+     * @param task The task, or {@code null} if the queue has no task.
+     * @return {@code true} if the task is running for the current plugin.
+     */
+    static boolean isRunning(BukkitTask task) {
+        return task != null && !task.isCancelled() && task.getOwner() == QuartzLib.getPlugin();
+    }
+
     /**
      * Returns a task that will run on the next server tick.
      *
@@ -66,6 +83,27 @@ public final class RunTask {
         return runnable.runTask(QuartzLib.getPlugin());
     }
 
+    /**
+     * Runs a task on the next server tick, without scheduling a Bukkit task for it.
+     *
+     * <p>The tasks deferred this way are queued by QuartzLib, and run by a single repeating task, in
+     * the order they were deferred. Prefer this method to {@link #nextTick(Runnable)} for small,
+     * frequent deferrals, as thousands of them per tick cost a single scheduler entry. The tasks
+     * cannot be cancelled, and their exceptions are logged.</p>
+     *
+     * <p>The tasks are never run before this method returns, but they are not guaranteed to run in a
+     * later tick than the current one: a task deferred by a Bukkit task run earlier in the current
+     * tick than the QuartzLib one is run in this tick. Use {@link #nextTick(Runnable)} when the task
+     * must run in the next tick, e.g. to leave an inventory event.</p>
+     *
+     * <p>This method may be called from any thread.</p>
+     *
+     * @param runnable The task to be run.
+     */
+    public static void nextTickLight(Runnable runnable) {
+        NextTickQueue.post(runnable);
+    }
+
     /**
      * Returns a task that will run after the specified number of server ticks.
      *
@@ -88,6 +126,27 @@ public final class RunTask {
         return runnable.runTaskLater(QuartzLib.getPlugin(), delay);
     }
 
+    /**
+     * Runs a task after the specified number of server ticks, without scheduling a Bukkit task for
+     * it.
+     *
+     * <p>The tasks deferred this way are held by QuartzLib in a hierarchical timing wheel, driven by
+     * a single repeating task: deferring and cancelling a task take constant time, whatever the
+     * number of pending tasks. Prefer this method to {@link #later(Runnable, long)} for large
+     * numbers of short delays, such as cooldowns. The exceptions of the tasks are logged.</p>
+     *
+     * <p>As the Bukkit API does not expose the current tick, a task deferred from outside of another
+     * light task may run one tick later than requested, but never earlier. This method may be
+     * called from any thread.</p>
+     *
+     * @param runnable The task to be run.
+     * @param delay    The ticks to wait before running the task (at least one).
+     * @return A handle to cancel the task.
+     */
+    public static LightTask laterLight(Runnable runnable, long delay) {
+        return DelayedTaskQueue.schedule(runnable, delay);
+    }
+
     /**
      * Returns a task that will repeatedly run until cancelled, starting after the specified number
      * of server ticks.
@@ -113,4 +172,52 @@ public final class RunTask {
     public static BukkitTask timer(BukkitRunnable runnable, long wait, long period) {
         return runnable.runTaskTimer(QuartzLib.getPlugin(), wait, period);
     }
+
+    /**
+     * Runs a job too large for a single tick step by step, starting on the next tick. At each tick,
+     * steps are run until the time budget is spent; the remaining steps are run at the next ticks.
+     *
+     * @param step   A step of the job, returning {@code true} if there is more to do, and
+     *               {@code false} once the job is done.
+     * @param budget The time the job may use at each tick, in milliseconds. At least one step is
+     *               run per tick, whatever the budget.
+     * @return The running task, exposing the progress and the completion of the job.
+     */
+    public static BudgetedTask budgeted(BooleanSupplier step, long budget) {
+        return BudgetedTask.start(step, budget);
+    }
+
+    /**
+     * Applies an action to all the elements of an iterator, starting on the next tick. At each
+     * tick, elements are processed until the time budget is spent; the remaining elements are
+     * processed at the next ticks.
+     *
+     * @param iterator The elements to process. The iterator must not be used elsewhere meanwhile.
+     * @param action   The action to apply to each element.
+     * @param budget   The time the job may use at each tick, in milliseconds. At least one element
+     *                 is processed per tick, whatever the budget.
+     * @param <T>      The type of the elements.
+     * @return The running task, exposing the progress and the completion of the job.
+     */
+    public static <T> BudgetedTask budgeted(Iterator<T> iterator, Consumer<? super T> action, long budget) {
+        return BudgetedTask.start(iterator, action, budget, -1);
+    }
+
+    /**
+     * Applies an action to all the elements of an iterable (e.g. 50 000 blocks), starting on the
+     * next tick. At each tick, elements are processed until the time budget is spent; the remaining
+     * elements are processed at the next ticks. If the iterable is a {@link Collection}, the
+     * progress of the task is known.
+     *
+     * @param elements The elements to process. They must not be modified meanwhile.
+     * @param action   The action to apply to each element.
+     * @param budget   The time the job may use at each tick, in milliseconds. At least one element
+     *                 is processed per tick, whatever the budget.
+     * @param <T>      The type of the elements.
+     * @return The running task, exposing the progress and the completion of the job.
+     */
+    public static <T> BudgetedTask budgeted(Iterable<T> elements, Consumer<? super T> action, long budget) {
+        final long total = elements instanceof Collection ? ((Collection<?>) elements).size() : -1;
+        return BudgetedTask.start(elements.iterator(), action, budget, total);
+    }
 }
@@ -0,0 +1,209 @@
+/*
+ * Copyright or © or Copr. QuartzLib contributors (2015 - 2020)
+ *
+ * This software is governed by the CeCILL-B license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-B
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-B license and that you accept its terms.
+ */
+
+package fr.zcraft.quartzlib.tools.runners;
+
+import java.util.List;
+
+/**
+ * A hierarchical timing wheel, holding tasks until the tick they expire at.
+ *
+ * <p>The first level has a slot per tick for the next 256 ticks; each of the three next levels has
+ * 64 slots, each covering as many ticks as the whole previous level. A task is added to the
+ * level covering its delay, in constant time, and is moved down (cascaded) to the lower levels as
+ * its expiry gets closer, until it reaches the first level and expires. Each slot is a doubly
+ * linked list, so tasks are removed in constant time too.</p>
+ *
+ * <p>Delays longer than the span of the wheel (about 38 days at 20 ticks per second) are supported:
+ * such tasks are cascaded again until they expire.</p>
+ *
+ * <p>This class is not thread-safe.</p>
+ */
+final class TimingWheel {
+    private static final int FIRST_LEVEL_BITS = 8;
+    private static final int LEVEL_BITS = 6;
+    private static final int LEVELS = 4;
+    private static final long MAX_DELTA = (1L << (FIRST_LEVEL_BITS + (LEVELS - 1) * LEVEL_BITS)) - 1;
+
+    private final Slot[][] levels = new Slot[LEVELS][];
+    private long currentTick = 0;
+    private int size = 0;
+
+    TimingWheel() {
+        for (int level = 0; level < LEVELS; level++) {
+            levels[level] = new Slot[1 << (level == 0 ? FIRST_LEVEL_BITS : LEVEL_BITS)];
+            for (int i = 0; i < levels[level].length; i++) {
+                levels[level][i] = new Slot();
+            }
+        }
+    }
+
+    /**
+     * Returns the tick the wheel is at: the last tick {@link #advance(List) advanced} to.
+     *
+     * @return The current tick.
+     */
+    long getCurrentTick() {
+        return currentTick;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Adds a task expiring at the given tick.
+     *
+     * @param task   The task, which must not be in the wheel.
+     * @param expiry The tick to expire at. If it is not after the current tick, the task expires
+     *               at the next tick.
+     */
+    void add(LightTask task, long expiry) {
+        task.expiry = Math.max(expiry, currentTick + 1);
+        insert(task);
+        size++;
+    }
+
+    /**
+     * Removes a task from the wheel.
+     *
+     * @param task The task.
+     * @return {@code true} if the task was in the wheel.
+     */
+    boolean remove(LightTask task) {
+        if (task.slot == null) {
+            return false;
+        }
+
+        task.slot.unlink(task);
+        size--;
+        return true;
+    }
+
+    /**
+     * Advances the wheel by one tick, moving the tasks expiring at this tick to the given list.
+     *
+     * @param expired The list receiving the expired tasks. Tasks expiring at the same tick are in
+     *                the order they were added if they were added at the same tick; otherwise, a
+     *                task cascaded from an upper level comes after the tasks already in the first
+     *                level.
+     */
+    void advance(List<LightTask> expired) {
+        final long tick = ++currentTick;
+
+        // Cascades the slots of the upper levels which start at this tick, from the highest.
+        int shift = FIRST_LEVEL_BITS;
+        int cascadedLevels = 0;
+        while (cascadedLevels < LEVELS - 1 && (tick & ((1L << shift) - 1)) == 0) {
+            cascadedLevels++;
+            shift += LEVEL_BITS;
+        }
+        for (int level = cascadedLevels; level >= 1; level--) {
+            cascade(levels[level][index(tick, level)]);
+        }
+
+        final Slot slot = levels[0][index(tick, 0)];
+        LightTask task;
+        while ((task = slot.head) != null) {
+            slot.unlink(task);
+            if (task.expiry - tick <= 0) {
+                size--;
+                expired.add(task);
+            } else {
+                insert(task);
+            }
+        }
+    }
+
+    private void cascade(Slot slot) {
+        LightTask task;
+        while ((task = slot.head) != null) {
+            slot.unlink(task);
+            insert(task);
+        }
+    }
+
+    private void insert(LightTask task) {
+        final long delta = Math.min(task.expiry - currentTick, MAX_DELTA);
+        final long placement = currentTick + delta;
+
+        int level = 0;
+        long span = 1L << FIRST_LEVEL_BITS;
+        while (level < LEVELS - 1 && delta >= span) {
+            level++;
+            span <<= LEVEL_BITS;
+        }
+
+        levels[level][index(placement, level)].link(task);
+    }
+
+    private static int index(long tick, int level) {
+        if (level == 0) {
+            return (int) (tick & ((1 << FIRST_LEVEL_BITS) - 1));
+        }
+        return (int) ((tick >>> (FIRST_LEVEL_BITS + (level - 1) * LEVEL_BITS)) & ((1 << LEVEL_BITS) - 1));
+    }
+
+    /**
+     * A slot of the wheel: a doubly linked list of tasks.
+     */
+    static final class Slot {
+        private LightTask head;
+        private LightTask tail;
+
+        private void link(LightTask task) {
+            task.slot = this;
+            task.previous = tail;
+            task.next = null;
+            if (tail == null) {
+                head = task;
+            } else {
+                tail.next = task;
+            }
+            tail = task;
+        }
+
+        private void unlink(LightTask task) {
+            if (task.previous == null) {
+                head = task.next;
+            } else {
+                task.previous.next = task.next;
+            }
+            if (task.next == null) {
+                tail = task.previous;
+            } else {
+                task.next.previous = task.previous;
+            }
+            task.slot = null;
+            task.previous = null;
+            task.next = null;
+        }
+    }
+}
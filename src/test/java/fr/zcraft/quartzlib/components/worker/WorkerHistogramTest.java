@@ -0,0 +1,95 @@
+/*
+ * Copyright or © or Copr. QuartzLib contributors (2015 - 2020)
+ *
+ * This software is governed by the CeCILL-B license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-B
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-B license and that you accept its terms.
+ */
+
+package fr.zcraft.quartzlib.components.worker;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class WorkerHistogramTest {
+    @Test
+    public void emptyHistogramReportsZeros() {
+        final WorkerHistogram histogram = new WorkerHistogram();
+
+        Assertions.assertEquals(0, histogram.getCount());
+        Assertions.assertEquals(0, histogram.getMean(), 0);
+        Assertions.assertEquals(0, histogram.getMax());
+        Assertions.assertEquals(0, histogram.getPercentile(99));
+    }
+
+    @Test
+    public void percentilesAreTheUpperBoundsOfTheirBuckets() {
+        final WorkerHistogram histogram = new WorkerHistogram();
+        for (int value = 1; value <= 100; value++) {
+            histogram.record(value);
+        }
+
+        Assertions.assertEquals(100, histogram.getCount());
+        Assertions.assertEquals(5050, histogram.getSum());
+        Assertions.assertEquals(50.5, histogram.getMean(), 0);
+        Assertions.assertEquals(100, histogram.getMax());
+
+        // Buckets of 1, 2-3, 4-7, 8-15, 16-31, 32-63 and 64-127.
+        Assertions.assertEquals(1, histogram.getPercentile(0));
+        Assertions.assertEquals(1, histogram.getPercentile(1));
+        Assertions.assertEquals(3, histogram.getPercentile(3));
+        Assertions.assertEquals(31, histogram.getPercentile(31));
+        Assertions.assertEquals(63, histogram.getPercentile(50));
+        Assertions.assertEquals(63, histogram.getPercentile(63));
+
+        // Capped to the greatest recorded value.
+        Assertions.assertEquals(100, histogram.getPercentile(64));
+        Assertions.assertEquals(100, histogram.getPercentile(99));
+        Assertions.assertEquals(100, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void percentilesAreAtMostTwiceTheExactValue() {
+        final WorkerHistogram histogram = new WorkerHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(1000);
+        }
+        histogram.record(1_000_000);
+
+        Assertions.assertTrue(histogram.getPercentile(50) >= 1000 && histogram.getPercentile(50) < 2000);
+        Assertions.assertTrue(histogram.getPercentile(99) >= 1000 && histogram.getPercentile(99) < 2000);
+        Assertions.assertEquals(1_000_000, histogram.getPercentile(99.5));
+    }
+
+    @Test
+    public void negativeValuesAreRecordedAsZero() {
+        final WorkerHistogram histogram = new WorkerHistogram();
+        histogram.record(-5);
+
+        Assertions.assertEquals(1, histogram.getCount());
+        Assertions.assertEquals(0, histogram.getSum());
+        Assertions.assertEquals(0, histogram.getPercentile(50));
+    }
+}
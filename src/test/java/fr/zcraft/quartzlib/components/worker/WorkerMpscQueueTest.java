@@ -0,0 +1,111 @@
+/*
+ * Copyright or © or Copr. QuartzLib contributors (2015 - 2020)
+ *
+ * This software is governed by the CeCILL-B license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-B
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-B license and that you accept its terms.
+ */
+
+package fr.zcraft.quartzlib.components.worker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class WorkerMpscQueueTest {
+    private static final int PRODUCERS = 4;
+    private static final int ELEMENTS_PER_PRODUCER = 100_000;
+
+    @Test
+    public void elementsArePolledInOfferOrder() {
+        final WorkerMpscQueue<Integer> queue = new WorkerMpscQueue<>();
+        Assertions.assertTrue(queue.isEmpty());
+        Assertions.assertNull(queue.poll());
+
+        for (int i = 0; i < 10; i++) {
+            queue.offer(i);
+        }
+
+        Assertions.assertFalse(queue.isEmpty());
+        for (int i = 0; i < 10; i++) {
+            Assertions.assertEquals(i, queue.poll());
+        }
+        Assertions.assertTrue(queue.isEmpty());
+        Assertions.assertNull(queue.poll());
+    }
+
+    @Test
+    public void elementsOfEachProducerStayInOrderUnderConcurrentOffers() throws InterruptedException {
+        final WorkerMpscQueue<long[]> queue = new WorkerMpscQueue<>();
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> producers = new ArrayList<>();
+
+        for (int p = 0; p < PRODUCERS; p++) {
+            final long producer = p;
+            final Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                for (long i = 0; i < ELEMENTS_PER_PRODUCER; i++) {
+                    queue.offer(new long[] {producer, i});
+                }
+            });
+            thread.start();
+            producers.add(thread);
+        }
+
+        start.countDown();
+
+        // Consumes while the producers are still offering.
+        final long[] nextExpected = new long[PRODUCERS];
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        int received = 0;
+        while (received < PRODUCERS * ELEMENTS_PER_PRODUCER) {
+            final long[] element = queue.poll();
+            if (element == null) {
+                Assertions.assertTrue(System.nanoTime() < deadline, "Elements were lost");
+                Thread.yield();
+                continue;
+            }
+
+            Assertions.assertEquals(nextExpected[(int) element[0]], element[1]);
+            nextExpected[(int) element[0]]++;
+            received++;
+        }
+
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        Assertions.assertTrue(queue.isEmpty());
+        for (long count : nextExpected) {
+            Assertions.assertEquals(ELEMENTS_PER_PRODUCER, count);
+        }
+    }
+}
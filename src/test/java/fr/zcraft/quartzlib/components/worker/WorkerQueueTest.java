@@ -0,0 +1,292 @@
+/*
+ * Copyright or © or Copr. QuartzLib contributors (2015 - 2020)
+ *
+ * This software is governed by the CeCILL-B license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-B
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-B license and that you accept its terms.
+ */
+
+package fr.zcraft.quartzlib.components.worker;
+
+import be.seeseemelk.mockbukkit.MockBukkit;
+import fr.zcraft.quartzlib.Toaster;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class WorkerQueueTest {
+    private final List<WorkerJob<?>> evicted = new ArrayList<>();
+    private final List<WorkerJob<?>> expired = new ArrayList<>();
+
+    @BeforeEach
+    public void setUp() {
+        MockBukkit.mock();
+        MockBukkit.load(Toaster.class);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        MockBukkit.unmock();
+    }
+
+    @Test
+    public void jobsAreTakenByPriorityThenInSubmissionOrder() throws InterruptedException {
+        final WorkerQueue queue = newQueue(0, WorkerRejectionPolicy.FAIL);
+        final WorkerJob<?> low = newJob(WorkerPriority.LOW);
+        final WorkerJob<?> firstHigh = newJob(WorkerPriority.HIGH);
+        final WorkerJob<?> normal = newJob(WorkerPriority.NORMAL);
+        final WorkerJob<?> secondHigh = newJob(WorkerPriority.HIGH);
+        final WorkerJob<?> lowest = newJob(WorkerPriority.LOWEST);
+
+        for (WorkerJob<?> job : Arrays.asList(low, firstHigh, normal, secondHigh, lowest)) {
+            Assertions.assertNull(queue.offer(job));
+        }
+
+        Assertions.assertEquals(5, queue.size());
+        for (WorkerJob<?> job : Arrays.asList(firstHigh, secondHigh, normal, low, lowest)) {
+            Assertions.assertSame(job, queue.take());
+        }
+        Assertions.assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void queuedJobsExpireWhenTheirDeadlineIsReached() throws InterruptedException {
+        final WorkerQueue queue = newQueue(0, WorkerRejectionPolicy.FAIL);
+        final WorkerJob<?> expiring = newJob(WorkerPriority.NORMAL,
+                System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(20));
+        final WorkerJob<?> other = newJob(WorkerPriority.LOW);
+        queue.offer(expiring);
+        queue.offer(other);
+
+        Assertions.assertTrue(queue.await(() -> true, 0));
+        Assertions.assertTrue(expired.isEmpty());
+
+        // Expired although it is at the head of the queue, and was not taken.
+        final long start = System.nanoTime();
+        Assertions.assertTrue(queue.await(() -> !expired.isEmpty(), TimeUnit.SECONDS.toNanos(5)));
+        Assertions.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        Assertions.assertEquals(Arrays.asList(expiring), expired);
+        Assertions.assertEquals(1, queue.size());
+        Assertions.assertSame(other, queue.take());
+    }
+
+    @Test
+    public void takenJobsDoNotExpire() throws InterruptedException {
+        final WorkerQueue queue = newQueue(0, WorkerRejectionPolicy.FAIL);
+        final WorkerJob<?> job = newJob(WorkerPriority.NORMAL, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10));
+        queue.offer(job);
+
+        Assertions.assertSame(job, queue.take());
+
+        Assertions.assertFalse(queue.await(() -> false, TimeUnit.MILLISECONDS.toNanos(20)));
+        Assertions.assertTrue(expired.isEmpty());
+    }
+
+    @Test
+    public void awaitingThreadsAreWokenUpBySubmissions() throws InterruptedException {
+        final WorkerQueue queue = newQueue(0, WorkerRejectionPolicy.FAIL);
+        final Thread submitter = new Thread(() -> {
+            try {
+                Thread.sleep(20);
+                queue.offer(newJob(WorkerPriority.NORMAL, System.nanoTime()));
+            } catch (InterruptedException ignored) {
+                // Ends the thread.
+            }
+        });
+        submitter.start();
+
+        // The job submitted meanwhile expires right away, so it must be seen before the timeout.
+        final long start = System.nanoTime();
+        Assertions.assertTrue(queue.await(() -> !expired.isEmpty(), TimeUnit.SECONDS.toNanos(5)));
+        Assertions.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        submitter.join();
+    }
+
+    @Test
+    public void failRejectsTheJobsSubmittedWhileFull() throws InterruptedException {
+        final WorkerQueue queue = newQueue(2, WorkerRejectionPolicy.FAIL);
+        final WorkerJob<?> first = newJob(WorkerPriority.NORMAL);
+        final WorkerJob<?> rejected = newJob(WorkerPriority.HIGH);
+
+        Assertions.assertNull(queue.offer(first));
+        Assertions.assertNull(queue.offer(newJob(WorkerPriority.NORMAL)));
+        Assertions.assertSame(rejected, queue.offer(rejected));
+        Assertions.assertEquals(2, queue.size());
+
+        Assertions.assertSame(first, queue.take());
+        Assertions.assertNull(queue.offer(rejected));
+        Assertions.assertSame(rejected, queue.take());
+    }
+
+    @Test
+    public void cancelledJobsGiveTheirPlaceBackRightAway() throws InterruptedException {
+        final WorkerQueue queue = newQueue(1, WorkerRejectionPolicy.FAIL);
+        final WorkerJob<?> cancelled = newJob(WorkerPriority.HIGH);
+        final WorkerJob<?> next = newJob(WorkerPriority.NORMAL);
+
+        Assertions.assertNull(queue.offer(cancelled));
+        Assertions.assertTrue(queue.remove(cancelled));
+        Assertions.assertFalse(queue.remove(cancelled));
+        Assertions.assertEquals(0, queue.size());
+
+        // The cancelled job is skipped when reached, without counting twice.
+        Assertions.assertNull(queue.offer(next));
+        Assertions.assertSame(next, queue.take());
+        Assertions.assertFalse(queue.remove(next));
+        Assertions.assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void callerRunsRejectsTheJobsSubmittedWhileFull() throws InterruptedException {
+        // The queue hands the job back; the worker runs it on the submitting thread.
+        final WorkerQueue queue = newQueue(1, WorkerRejectionPolicy.CALLER_RUNS);
+        final WorkerJob<?> rejected = newJob(WorkerPriority.NORMAL);
+
+        Assertions.assertNull(queue.offer(newJob(WorkerPriority.NORMAL)));
+        Assertions.assertSame(rejected, queue.offer(rejected));
+        Assertions.assertEquals(1, queue.size());
+    }
+
+    @Test
+    public void blockWaitsForRoomOffTheMainThread() throws InterruptedException {
+        final WorkerQueue queue = newQueue(1, WorkerRejectionPolicy.BLOCK);
+        final WorkerJob<?> first = newJob(WorkerPriority.NORMAL);
+        final WorkerJob<?> second = newJob(WorkerPriority.NORMAL);
+        Assertions.assertNull(queue.offer(first));
+
+        // The main thread is never blocked.
+        Assertions.assertSame(second, queue.offer(second));
+
+        final AtomicReference<Object> result = new AtomicReference<>("pending");
+        final Thread submitter = new Thread(() -> {
+            try {
+                result.set(queue.offer(second));
+            } catch (InterruptedException ex) {
+                result.set(ex);
+            }
+        });
+        submitter.start();
+
+        submitter.join(100);
+        Assertions.assertTrue(submitter.isAlive());
+        Assertions.assertEquals("pending", result.get());
+
+        Assertions.assertSame(first, queue.take());
+        submitter.join(TimeUnit.SECONDS.toMillis(5));
+        Assertions.assertFalse(submitter.isAlive());
+        Assertions.assertNull(result.get());
+        Assertions.assertSame(second, queue.take());
+    }
+
+    @Test
+    public void dropOldestEvictsTheOldestJobsWithTheLowestPriority() throws InterruptedException {
+        final WorkerQueue queue = newQueue(2, WorkerRejectionPolicy.DROP_OLDEST);
+        final WorkerJob<?> firstLow = newJob(WorkerPriority.LOW);
+        final WorkerJob<?> firstNormal = newJob(WorkerPriority.NORMAL);
+        final WorkerJob<?> secondLow = newJob(WorkerPriority.LOW);
+        final WorkerJob<?> secondNormal = newJob(WorkerPriority.NORMAL);
+
+        for (WorkerJob<?> job : Arrays.asList(firstLow, firstNormal, secondLow, secondNormal)) {
+            Assertions.assertNull(queue.offer(job));
+            Assertions.assertTrue(queue.size() <= 2);
+        }
+
+        // Evicted by the submitters, without any job being taken.
+        Assertions.assertEquals(Arrays.asList(firstLow, secondLow), evicted);
+        Assertions.assertSame(firstNormal, queue.take());
+        Assertions.assertEquals(1, queue.size());
+        Assertions.assertSame(secondNormal, queue.take());
+    }
+
+    @Test
+    public void scheduledJobsAreReleasedWhenDue() throws InterruptedException {
+        final WorkerQueue queue = newQueue(0, WorkerRejectionPolicy.FAIL);
+        final long delay = TimeUnit.MILLISECONDS.toNanos(50);
+        final long start = System.nanoTime();
+        final WorkerJob<?> scheduled = newScheduledJob(start + delay, 0);
+
+        Assertions.assertTrue(queue.schedule(scheduled));
+        Assertions.assertEquals(0, queue.size());
+
+        Assertions.assertSame(scheduled, queue.take());
+        Assertions.assertTrue(System.nanoTime() - start >= delay);
+    }
+
+    @Test
+    public void periodicJobsAreNotRescheduledOnceTheTimersAreCleared() throws InterruptedException {
+        final WorkerQueue queue = newQueue(0, WorkerRejectionPolicy.FAIL);
+        final long period = TimeUnit.MILLISECONDS.toNanos(20);
+        final long start = System.nanoTime();
+        final WorkerJob<?> periodic = newScheduledJob(start, period);
+        final WorkerJob<?> later = newScheduledJob(start + TimeUnit.HOURS.toNanos(1), 0);
+
+        queue.schedule(periodic);
+        queue.schedule(later);
+        Assertions.assertSame(periodic, queue.take());
+
+        Assertions.assertTrue(queue.reschedule(periodic));
+        Assertions.assertEquals(start + period, periodic.getScheduledTime());
+        Assertions.assertSame(periodic, queue.take());
+        Assertions.assertTrue(System.nanoTime() - start >= period);
+
+        // The periodic job is running: only the job not due yet is removed.
+        Assertions.assertEquals(Arrays.asList(later), queue.clearScheduled());
+        Assertions.assertFalse(queue.reschedule(periodic));
+        Assertions.assertFalse(queue.schedule(later));
+
+        queue.open();
+        Assertions.assertTrue(queue.reschedule(periodic));
+        Assertions.assertEquals(Arrays.asList(periodic), queue.clearScheduled());
+    }
+
+    private WorkerQueue newQueue(int capacity, WorkerRejectionPolicy rejectionPolicy) {
+        return new WorkerQueue("test", capacity, rejectionPolicy, evicted::add, expired::add, new WorkerHistogram());
+    }
+
+    private static WorkerJob<?> newJob(WorkerPriority priority) {
+        return newJob(priority, WorkerJob.NO_DEADLINE);
+    }
+
+    private static WorkerJob<?> newJob(WorkerPriority priority, long deadline) {
+        return new WorkerJob<>(new NoopRunnable(), null, priority, deadline, job -> { });
+    }
+
+    private static WorkerJob<?> newScheduledJob(long scheduledTime, long period) {
+        return new WorkerJob<>(new NoopRunnable(), null, scheduledTime, period, job -> { });
+    }
+
+    private static final class NoopRunnable extends WorkerRunnable<Void> {
+        @Override
+        public Void run() {
+            return null;
+        }
+    }
+}
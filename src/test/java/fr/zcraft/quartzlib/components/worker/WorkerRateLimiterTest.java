@@ -0,0 +1,94 @@
+/*
+ * Copyright or © or Copr. QuartzLib contributors (2015 - 2020)
+ *
+ * This software is governed by the CeCILL-B license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-B
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-B license and that you accept its terms.
+ */
+
+package fr.zcraft.quartzlib.components.worker;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class WorkerRateLimiterTest {
+    private static final long PERIOD = TimeUnit.MILLISECONDS.toNanos(100);
+
+    @Test
+    public void burstIsAvailableRightAway() {
+        final WorkerRateLimiter limiter = new WorkerRateLimiter(10, 3);
+        final long now = System.nanoTime();
+
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertEquals(0, limiter.getWaitTime(now));
+            limiter.consume();
+        }
+
+        assertAbout(PERIOD, limiter.getWaitTime(now));
+    }
+
+    @Test
+    public void permitsAreAddedAtTheConfiguredRate() {
+        final WorkerRateLimiter limiter = new WorkerRateLimiter(10, 1);
+        final long start = System.nanoTime();
+        limiter.getWaitTime(start);
+        limiter.consume();
+
+        assertAbout(PERIOD, limiter.getWaitTime(start));
+        assertAbout(PERIOD / 2, limiter.getWaitTime(start + PERIOD / 2));
+        Assertions.assertEquals(0, limiter.getWaitTime(start + PERIOD));
+        limiter.consume();
+
+        // Ten permits per second: 50 permits in 5 seconds, whatever the pace they are asked at.
+        int permits = 0;
+        for (long now = start + PERIOD; now <= start + PERIOD + TimeUnit.SECONDS.toNanos(5); now += PERIOD / 4) {
+            if (limiter.getWaitTime(now) == 0) {
+                limiter.consume();
+                permits++;
+            }
+        }
+        Assertions.assertEquals(50, permits);
+    }
+
+    @Test
+    public void unusedPermitsAreCappedToTheBurst() {
+        final WorkerRateLimiter limiter = new WorkerRateLimiter(10, 2);
+        final long later = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+
+        Assertions.assertEquals(0, limiter.getWaitTime(later));
+        limiter.consume();
+        Assertions.assertEquals(0, limiter.getWaitTime(later));
+        limiter.consume();
+        Assertions.assertTrue(limiter.getWaitTime(later) > 0);
+    }
+
+    /**
+     * Checks a wait time, within a nanosecond of rounding error.
+     */
+    private static void assertAbout(long expected, long actual) {
+        Assertions.assertTrue(Math.abs(expected - actual) <= 1, "Expected " + expected + "ns but was " + actual);
+    }
+}
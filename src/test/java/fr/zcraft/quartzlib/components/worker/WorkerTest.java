@@ -0,0 +1,681 @@
+/*
+ * Copyright or © or Copr. QuartzLib contributors (2015 - 2020)
+ *
+ * This software is governed by the CeCILL-B license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-B
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-B license and that you accept its terms.
+ */
+
+package fr.zcraft.quartzlib.components.worker;
+
+import be.seeseemelk.mockbukkit.MockBukkit;
+import be.seeseemelk.mockbukkit.ServerMock;
+import fr.zcraft.quartzlib.Toaster;
+import fr.zcraft.quartzlib.core.QuartzLib;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.SimpleFormatter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class WorkerTest {
+    private static final long TIMEOUT = 5;
+
+    private ServerMock server;
+    private Toaster plugin;
+    private Worker worker;
+    private final List<Worker> workers = new ArrayList<>();
+
+    @BeforeEach
+    public void setUp() {
+        server = MockBukkit.mock();
+        plugin = MockBukkit.load(Toaster.class);
+        worker = load(TestWorker.class);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        for (Worker loadedWorker : workers) {
+            loadedWorker.setEnabled(false);
+        }
+        MockBukkit.unmock();
+    }
+
+    private <W extends Worker> W load(Class<W> workerClass) {
+        final W loadedWorker = QuartzLib.loadComponent(workerClass);
+        workers.add(loadedWorker);
+        return loadedWorker;
+    }
+
+    /**
+     * Runs an action, and returns the warnings it logged through the plugin's logger.
+     */
+    private List<LogRecord> captureWarnings(Runnable action) {
+        final List<LogRecord> warnings = Collections.synchronizedList(new ArrayList<>());
+        final Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                if (record.getLevel() == Level.WARNING) {
+                    warnings.add(record);
+                }
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        plugin.getLogger().addHandler(handler);
+        try {
+            action.run();
+        } finally {
+            plugin.getLogger().removeHandler(handler);
+        }
+        return warnings;
+    }
+
+    @Test
+    public void sharedQueriesRunOnceForAllTheirCallers() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger runs = new AtomicInteger();
+
+        final WorkerFuture<String> first = worker.submitShared("key", new BlockingRunnable(release, runs), null);
+        final WorkerFuture<String> second = worker.submitShared("key", new BlockingRunnable(release, runs), null);
+        release.countDown();
+
+        Assertions.assertEquals("done", first.get(TIMEOUT, TimeUnit.SECONDS));
+        Assertions.assertEquals("done", second.get(TIMEOUT, TimeUnit.SECONDS));
+        Assertions.assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void allTheCallersOfASharedQueryReceiveItsResult() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger runs = new AtomicInteger();
+        final BlockingRunnable query = new BlockingRunnable(release, runs);
+        final List<String> results = new ArrayList<>();
+        final List<WorkerFuture<String>> futures = new ArrayList<>();
+
+        // The same runnable instance, as a query constant would be, with one callback per caller.
+        for (int i = 0; i < 5; i++) {
+            final int caller = i;
+            futures.add(worker.submitShared("key", query, new WorkerCallback<String>() {
+                @Override
+                public void finished(String result) {
+                    results.add(caller + ":" + result);
+                }
+
+                @Override
+                public void errored(Throwable exception) {
+                    Assertions.fail(exception);
+                }
+            }));
+        }
+        release.countDown();
+
+        for (WorkerFuture<String> future : futures) {
+            Assertions.assertEquals("done", future.get(TIMEOUT, TimeUnit.SECONDS));
+        }
+
+        // The callbacks may be spread over several ticks by the time budget.
+        for (int tick = 0; tick < 20 && results.size() < 5; tick++) {
+            server.getScheduler().performOneTick();
+        }
+
+        Assertions.assertEquals(1, runs.get());
+        Collections.sort(results);
+        Assertions.assertEquals(Arrays.asList("0:done", "1:done", "2:done", "3:done", "4:done"), results);
+    }
+
+    @Test
+    public void cancellingTheFirstCallerOfASharedQueryOnlyDetachesIt() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final BlockingRunnable query = new BlockingRunnable(release, new AtomicInteger());
+
+        final WorkerFuture<String> first = worker.submitShared("key", query, null);
+        final WorkerFuture<String> second = worker.submitShared("key", new BlockingRunnable(release, null), null);
+        Assertions.assertTrue(query.started.await(TIMEOUT, TimeUnit.SECONDS));
+
+        Assertions.assertTrue(first.cancel(true));
+        release.countDown();
+
+        Assertions.assertEquals("done", second.get(TIMEOUT, TimeUnit.SECONDS));
+        Assertions.assertTrue(first.isCancelled());
+        Assertions.assertFalse(query.interrupted);
+    }
+
+    @Test
+    public void cancellingACallerOfASharedQueryTwiceOnlyDetachesItOnce() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final BlockingRunnable query = new BlockingRunnable(release, new AtomicInteger());
+
+        final WorkerFuture<String> first = worker.submitShared("key", query, null);
+        final WorkerFuture<String> second = worker.submitShared("key", new BlockingRunnable(release, null), null);
+        final WorkerFuture<String> third = worker.submitShared("key", new BlockingRunnable(release, null), null);
+        Assertions.assertTrue(query.started.await(TIMEOUT, TimeUnit.SECONDS));
+
+        first.cancel(true);
+        first.cancel(true);
+        second.cancel(true);
+        release.countDown();
+
+        Assertions.assertEquals("done", third.get(TIMEOUT, TimeUnit.SECONDS));
+        Assertions.assertFalse(query.interrupted);
+    }
+
+    @Test
+    public void sharedQueriesAreCancelledWhenAllTheirCallersDetach() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final BlockingRunnable query = new BlockingRunnable(release, new AtomicInteger());
+
+        final WorkerFuture<String> first = worker.submitShared("key", query, null);
+        final WorkerFuture<String> second = worker.submitShared("key", new BlockingRunnable(release, null), null);
+        Assertions.assertTrue(query.started.await(TIMEOUT, TimeUnit.SECONDS));
+
+        first.cancel(true);
+        second.cancel(true);
+
+        Assertions.assertTrue(query.finished.await(TIMEOUT, TimeUnit.SECONDS));
+        Assertions.assertTrue(query.interrupted);
+
+        // The key is free again: a new caller starts a new query.
+        final WorkerFuture<String> third = worker.submitShared("key", new BlockingRunnable(null, null), null);
+        Assertions.assertEquals("done", third.get(TIMEOUT, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void sharedQueriesCancelledBeforeStartingAreNotRun() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger runs = new AtomicInteger();
+
+        // Keeps the worker busy, so that the shared query stays queued.
+        final BlockingRunnable blocker = new BlockingRunnable(release, null);
+        worker.submit(blocker);
+        Assertions.assertTrue(blocker.started.await(TIMEOUT, TimeUnit.SECONDS));
+
+        final WorkerFuture<String> first = worker.submitShared("key", new BlockingRunnable(null, runs), null);
+        final WorkerFuture<String> second = worker.submitShared("key", new BlockingRunnable(null, runs), null);
+        second.cancel(false);
+        first.cancel(false);
+        release.countDown();
+
+        final WorkerFuture<String> next = worker.submit(new BlockingRunnable(null, null));
+        Assertions.assertEquals("done", next.get(TIMEOUT, TimeUnit.SECONDS));
+        Assertions.assertEquals(0, runs.get());
+        Assertions.assertThrows(CancellationException.class, first::join);
+    }
+
+    @Test
+    public void callbacksAreDeliveredAfterTheDispatcherTaskWasCancelled() throws Exception {
+        final AtomicInteger callbacks = new AtomicInteger();
+        final WorkerCallback<String> callback = new WorkerCallback<String>() {
+            @Override
+            public void finished(String result) {
+                callbacks.incrementAndGet();
+            }
+
+            @Override
+            public void errored(Throwable exception) {
+                Assertions.fail(exception);
+            }
+        };
+
+        worker.submit(new BlockingRunnable(null, null), callback).get(TIMEOUT, TimeUnit.SECONDS);
+        server.getScheduler().performOneTick();
+        Assertions.assertEquals(1, callbacks.get());
+
+        // Like Bukkit does when the plugin is disabled.
+        server.getScheduler().cancelTasks(plugin);
+
+        worker.submit(new BlockingRunnable(null, null), callback).get(TIMEOUT, TimeUnit.SECONDS);
+        server.getScheduler().performOneTick();
+        Assertions.assertEquals(2, callbacks.get());
+    }
+
+    @Test
+    public void keyedQueriesRunOneAtATimeInSubmissionOrder() throws Exception {
+        final Worker pool = load(PoolWorker.class);
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final List<WorkerFuture<Integer>> futures = new ArrayList<>();
+
+        for (int i = 0; i < 20; i++) {
+            final int index = i;
+            futures.add(pool.submitKeyed("key", new WorkerRunnable<Integer>() {
+                @Override
+                public Integer run() throws InterruptedException {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    order.add(index);
+                    Thread.sleep(2);
+                    running.decrementAndGet();
+                    return index;
+                }
+            }));
+        }
+
+        for (WorkerFuture<Integer> future : futures) {
+            future.get(TIMEOUT, TimeUnit.SECONDS);
+        }
+        Assertions.assertEquals(1, maxRunning.get());
+        for (int i = 0; i < 20; i++) {
+            Assertions.assertEquals(i, order.get(i));
+        }
+    }
+
+    @Test
+    public void queriesExpireWhileTheyWaitForABusyPool() throws Exception {
+        final Worker pool = load(SingleThreadPoolWorker.class);
+        final CountDownLatch release = new CountDownLatch(1);
+        final BlockingRunnable blocker = new BlockingRunnable(release, null);
+        pool.submit(blocker);
+        Assertions.assertTrue(blocker.started.await(TIMEOUT, TimeUnit.SECONDS));
+
+        final AtomicInteger runs = new AtomicInteger();
+        final WorkerFuture<String> expiring = pool.submit(new BlockingRunnable(null, runs), null,
+                WorkerPriority.NORMAL, 20, TimeUnit.MILLISECONDS);
+
+        // Expired on time, although the pool is still busy.
+        final ExecutionException exception = Assertions.assertThrows(ExecutionException.class,
+                () -> expiring.get(TIMEOUT, TimeUnit.SECONDS));
+        Assertions.assertTrue(exception.getCause() instanceof TimeoutException);
+        Assertions.assertEquals(1, blocker.finished.getCount());
+
+        release.countDown();
+        Assertions.assertEquals("done", pool.submit(new BlockingRunnable(null, null)).get(TIMEOUT, TimeUnit.SECONDS));
+        Assertions.assertEquals(0, runs.get());
+    }
+
+    @Test
+    public void callerRunsOnlyRunsTheRejectedQueriesOffTheMainThread() throws Exception {
+        final Worker bounded = load(CallerRunsWorker.class);
+        final CountDownLatch release = new CountDownLatch(1);
+        final BlockingRunnable blocker = new BlockingRunnable(release, null);
+        bounded.submit(blocker);
+        Assertions.assertTrue(blocker.started.await(TIMEOUT, TimeUnit.SECONDS));
+        final WorkerFuture<String> queued = bounded.submit(new BlockingRunnable(null, null));
+
+        final AtomicReference<Thread> runner = new AtomicReference<>();
+        final AtomicReference<WorkerFuture<Thread>> offThread = new AtomicReference<>();
+        final Thread submitter = new Thread(() -> offThread.set(bounded.submit(new WorkerRunnable<Thread>() {
+            @Override
+            public Thread run() {
+                runner.set(Thread.currentThread());
+                return Thread.currentThread();
+            }
+        })));
+        submitter.start();
+        submitter.join(TimeUnit.SECONDS.toMillis(TIMEOUT));
+
+        // Run by the submitting thread, before the submission returned.
+        Assertions.assertTrue(offThread.get().isDone());
+        Assertions.assertSame(submitter, runner.get());
+
+        // The main thread must never run queries: it fails as with FAIL.
+        final WorkerFuture<String> onMainThread = bounded.submit(new BlockingRunnable(null, null));
+        final ExecutionException exception = Assertions.assertThrows(ExecutionException.class,
+                () -> onMainThread.get(TIMEOUT, TimeUnit.SECONDS));
+        Assertions.assertTrue(exception.getCause() instanceof RejectedExecutionException);
+
+        release.countDown();
+        Assertions.assertEquals("done", queued.get(TIMEOUT, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void dropOldestKeepsTheQueueBoundedWhileTheWorkerIsBusy() throws Exception {
+        final Worker bounded = load(DropOldestWorker.class);
+        final CountDownLatch release = new CountDownLatch(1);
+        final BlockingRunnable blocker = new BlockingRunnable(release, null);
+        bounded.submit(blocker);
+        Assertions.assertTrue(blocker.started.await(TIMEOUT, TimeUnit.SECONDS));
+
+        final List<WorkerFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            futures.add(bounded.submit(new BlockingRunnable(null, null)));
+            Assertions.assertTrue(bounded.getQueueSize() <= 4, "Queue size: " + bounded.getQueueSize());
+        }
+
+        // The oldest queries were dropped by their submitters, while the worker was still busy.
+        for (int i = 0; i < 96; i++) {
+            final ExecutionException exception = Assertions.assertThrows(ExecutionException.class,
+                    futures.get(i)::get);
+            Assertions.assertTrue(exception.getCause() instanceof RejectedExecutionException);
+        }
+        Assertions.assertEquals(96, bounded.getRejectedCount());
+
+        release.countDown();
+        for (int i = 96; i < 100; i++) {
+            Assertions.assertEquals("done", futures.get(i).get(TIMEOUT, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void cancellingAQueuedQueryGivesItsPlaceBack() throws Exception {
+        final Worker bounded = load(FailWorker.class);
+        final CountDownLatch release = new CountDownLatch(1);
+        final BlockingRunnable blocker = new BlockingRunnable(release, null);
+        bounded.submit(blocker);
+        Assertions.assertTrue(blocker.started.await(TIMEOUT, TimeUnit.SECONDS));
+
+        final AtomicInteger runs = new AtomicInteger();
+        final WorkerFuture<String> cancelled = bounded.submit(new BlockingRunnable(null, runs));
+        Assertions.assertEquals(1, bounded.getQueueSize());
+        Assertions.assertTrue(cancelled.cancel(false));
+        Assertions.assertEquals(0, bounded.getQueueSize());
+
+        final WorkerFuture<String> accepted = bounded.submit(new BlockingRunnable(null, runs));
+        release.countDown();
+
+        Assertions.assertEquals("done", accepted.get(TIMEOUT, TimeUnit.SECONDS));
+        Assertions.assertEquals(1, runs.get());
+        Assertions.assertEquals(0, bounded.getRejectedCount());
+    }
+
+    @Test
+    public void cancellingOneSubmissionOfARunnableLeavesTheOthersAlone() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final BlockingRunnable blocker = new BlockingRunnable(release, null);
+        worker.submit(blocker);
+        Assertions.assertTrue(blocker.started.await(TIMEOUT, TimeUnit.SECONDS));
+
+        final AtomicInteger runs = new AtomicInteger();
+        final BlockingRunnable query = new BlockingRunnable(null, runs);
+        final WorkerFuture<String> cancelled = worker.submit(query);
+        final WorkerFuture<String> kept = worker.submit(query);
+        Assertions.assertTrue(cancelled.cancel(false));
+        release.countDown();
+
+        Assertions.assertEquals("done", kept.get(TIMEOUT, TimeUnit.SECONDS));
+        Assertions.assertTrue(cancelled.isCancelled());
+        Assertions.assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void queriesLeftWhenStoppingWithoutTimeoutAreCompleted() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final BlockingRunnable blocker = new BlockingRunnable(release, null);
+        final WorkerFuture<String> running = worker.submit(blocker);
+        Assertions.assertTrue(blocker.started.await(TIMEOUT, TimeUnit.SECONDS));
+
+        final WorkerFuture<String> queued = worker.submit(new BlockingRunnable(null, null));
+        final WorkerFuture<String> firstKeyed = worker.submitKeyed("key", new BlockingRunnable(null, null));
+        final WorkerFuture<String> secondKeyed = worker.submitKeyed("key", new BlockingRunnable(null, null));
+        final WorkerFuture<String> scheduled = worker.schedule(new BlockingRunnable(null, null), 1, TimeUnit.HOURS);
+
+        worker.setEnabled(false);
+
+        for (WorkerFuture<String> future : Arrays.asList(queued, firstKeyed, secondKeyed, scheduled)) {
+            final ExecutionException exception = Assertions.assertThrows(ExecutionException.class,
+                    () -> future.get(TIMEOUT, TimeUnit.SECONDS));
+            Assertions.assertTrue(exception.getCause() instanceof RejectedExecutionException);
+        }
+
+        // The running query is interrupted.
+        Assertions.assertThrows(ExecutionException.class, () -> running.get(TIMEOUT, TimeUnit.SECONDS));
+        Assertions.assertTrue(blocker.interrupted);
+    }
+
+    @Test
+    public void stoppingWithATimeoutDrainsTheQueriesAndRunsTheirCallbacks() throws Exception {
+        final Worker draining = load(DrainingWorker.class);
+        final CountDownLatch release = new CountDownLatch(1);
+        final BlockingRunnable blocker = new BlockingRunnable(release, null);
+        draining.submit(blocker);
+        Assertions.assertTrue(blocker.started.await(TIMEOUT, TimeUnit.SECONDS));
+
+        final AtomicInteger runs = new AtomicInteger();
+        final List<String> results = Collections.synchronizedList(new ArrayList<>());
+        final List<Thread> callbackThreads = Collections.synchronizedList(new ArrayList<>());
+        final List<WorkerFuture<String>> queued = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            queued.add(draining.submit(new BlockingRunnable(null, runs), new WorkerCallback<String>() {
+                @Override
+                public void finished(String result) {
+                    results.add(result);
+                    callbackThreads.add(Thread.currentThread());
+                }
+
+                @Override
+                public void errored(Throwable exception) {
+                    results.add(exception.toString());
+                }
+            }));
+        }
+
+        final Thread releaser = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ignored) {
+                // Released right away.
+            }
+            release.countDown();
+        });
+        releaser.start();
+        final List<LogRecord> warnings = captureWarnings(() -> draining.setEnabled(false));
+
+        // Everything ran, and the callbacks were run by the stopping thread before it returned.
+        for (WorkerFuture<String> future : queued) {
+            Assertions.assertTrue(future.isDone());
+            Assertions.assertEquals("done", future.get());
+        }
+        Assertions.assertEquals(3, runs.get());
+        Assertions.assertEquals(Arrays.asList("done", "done", "done"), results);
+        Assertions.assertEquals(Collections.nCopies(3, Thread.currentThread()), callbackThreads);
+        Assertions.assertFalse(blocker.interrupted);
+        Assertions.assertTrue(warnings.isEmpty());
+        releaser.join();
+    }
+
+    @Test
+    public void stoppingWithATimeoutReportsTheQueriesLeftOnceItExpires() throws Exception {
+        final Worker draining = load(ShortDrainWorker.class);
+        final CountDownLatch release = new CountDownLatch(1);
+        final BlockingRunnable blocker = new BlockingRunnable(release, null);
+        final WorkerFuture<String> running = draining.submit(blocker);
+        Assertions.assertTrue(blocker.started.await(TIMEOUT, TimeUnit.SECONDS));
+
+        final List<WorkerFuture<?>> queued = new ArrayList<>();
+        queued.add(draining.submit(new BlockingRunnable(null, null)));
+        queued.add(draining.submit(new BlockingRunnable(null, null)));
+        queued.add(draining.submit(new NoopRunnable()));
+
+        final long start = System.nanoTime();
+        final List<LogRecord> warnings = captureWarnings(() -> draining.setEnabled(false));
+        final long elapsed = System.nanoTime() - start;
+        release.countDown();
+
+        Assertions.assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos(100), elapsed + " ns");
+        Assertions.assertTrue(elapsed < TimeUnit.SECONDS.toNanos(TIMEOUT), elapsed + " ns");
+        for (WorkerFuture<?> future : queued) {
+            final ExecutionException exception = Assertions.assertThrows(ExecutionException.class,
+                    () -> future.get(TIMEOUT, TimeUnit.SECONDS));
+            Assertions.assertTrue(exception.getCause() instanceof RejectedExecutionException);
+        }
+        Assertions.assertThrows(ExecutionException.class, () -> running.get(TIMEOUT, TimeUnit.SECONDS));
+
+        Assertions.assertEquals(1, warnings.size());
+        final String warning = new SimpleFormatter().formatMessage(warnings.get(0));
+        Assertions.assertTrue(warning.contains("3 queued queries were dropped"), warning);
+        Assertions.assertTrue(warning.contains(BlockingRunnable.class.getName() + "=2"), warning);
+        Assertions.assertTrue(warning.contains(NoopRunnable.class.getName() + "=1"), warning);
+        Assertions.assertTrue(warning.contains("1 running queries were interrupted"), warning);
+    }
+
+    @Test
+    public void rateLimitedWorkersStartTheirQueriesAtTheConfiguredRate() throws Exception {
+        final Worker limited = load(RateLimitedWorker.class);
+        final List<WorkerFuture<Long>> futures = new ArrayList<>();
+
+        for (int i = 0; i < 6; i++) {
+            futures.add(limited.submit(new WorkerRunnable<Long>() {
+                @Override
+                public Long run() {
+                    return System.nanoTime();
+                }
+            }));
+        }
+
+        final long first = futures.get(0).get(TIMEOUT, TimeUnit.SECONDS);
+        final long last = futures.get(5).get(TIMEOUT, TimeUnit.SECONDS);
+
+        // 20 permits per second, one at a time: five waits of 50 ms after the first query.
+        Assertions.assertTrue(last - first >= TimeUnit.MILLISECONDS.toNanos(240), "Only " + (last - first) + "ns");
+    }
+
+    @Test
+    public void scheduledQueriesAreStartedOnceDue() throws Exception {
+        final long start = System.nanoTime();
+        final WorkerFuture<Long> delayed = worker.schedule(new WorkerRunnable<Long>() {
+            @Override
+            public Long run() {
+                return System.nanoTime();
+            }
+        }, 50, TimeUnit.MILLISECONDS);
+
+        Assertions.assertTrue(delayed.get(TIMEOUT, TimeUnit.SECONDS) - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    public void periodicQueriesRunUntilCancelled() throws Exception {
+        final CountDownLatch threeRuns = new CountDownLatch(3);
+        final AtomicInteger runs = new AtomicInteger();
+        final WorkerFuture<Void> periodic = worker.scheduleAtFixedRate(new WorkerRunnable<Void>() {
+            @Override
+            public Void run() {
+                runs.incrementAndGet();
+                threeRuns.countDown();
+                return null;
+            }
+        }, 0, 10, TimeUnit.MILLISECONDS);
+
+        Assertions.assertTrue(threeRuns.await(TIMEOUT, TimeUnit.SECONDS));
+        Assertions.assertFalse(periodic.isDone());
+        Assertions.assertTrue(periodic.cancel(false));
+
+        // At most the run in progress when cancelled completes.
+        Thread.sleep(50);
+        final int runsAfterCancel = runs.get();
+        Thread.sleep(50);
+        Assertions.assertEquals(runsAfterCancel, runs.get());
+    }
+
+    @WorkerAttributes(name = "test")
+    public static final class TestWorker extends Worker {
+    }
+
+    @WorkerAttributes(name = "test-pool", mode = WorkerMode.POOL, threads = 4)
+    public static final class PoolWorker extends Worker {
+    }
+
+    @WorkerAttributes(name = "test-single-pool", mode = WorkerMode.POOL, threads = 1)
+    public static final class SingleThreadPoolWorker extends Worker {
+    }
+
+    @WorkerAttributes(name = "test-caller-runs", capacity = 1, rejectionPolicy = WorkerRejectionPolicy.CALLER_RUNS)
+    public static final class CallerRunsWorker extends Worker {
+    }
+
+    @WorkerAttributes(name = "test-fail", capacity = 1, rejectionPolicy = WorkerRejectionPolicy.FAIL)
+    public static final class FailWorker extends Worker {
+    }
+
+    @WorkerAttributes(name = "test-drop-oldest", capacity = 4, rejectionPolicy = WorkerRejectionPolicy.DROP_OLDEST)
+    public static final class DropOldestWorker extends Worker {
+    }
+
+    @WorkerAttributes(name = "test-draining", shutdownTimeout = 5000)
+    public static final class DrainingWorker extends Worker {
+    }
+
+    @WorkerAttributes(name = "test-short-drain", shutdownTimeout = 100)
+    public static final class ShortDrainWorker extends Worker {
+    }
+
+    @WorkerAttributes(name = "test-rate-limited", permitsPerSecond = 20)
+    public static final class RateLimitedWorker extends Worker {
+    }
+
+    private static final class NoopRunnable extends WorkerRunnable<Void> {
+        @Override
+        public Void run() {
+            return null;
+        }
+    }
+
+    /**
+     * A query waiting for a latch (if any), then returning {@code "done"}.
+     */
+    private static final class BlockingRunnable extends WorkerRunnable<String> {
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private final CountDownLatch release;
+        private final AtomicInteger runs;
+        private volatile boolean interrupted = false;
+
+        private BlockingRunnable(CountDownLatch release, AtomicInteger runs) {
+            this.release = release;
+            this.runs = runs;
+        }
+
+        @Override
+        public String run() throws InterruptedException {
+            if (runs != null) {
+                runs.incrementAndGet();
+            }
+            started.countDown();
+
+            try {
+                if (release != null) {
+                    release.await();
+                }
+                return "done";
+            } catch (InterruptedException ex) {
+                interrupted = true;
+                throw ex;
+            } finally {
+                finished.countDown();
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright or © or Copr. QuartzLib contributors (2015 - 2020)
+ *
+ * This software is governed by the CeCILL-B license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-B
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-B license and that you accept its terms.
+ */
+
+package fr.zcraft.quartzlib.components.worker;
+
+import be.seeseemelk.mockbukkit.MockBukkit;
+import fr.zcraft.quartzlib.Toaster;
+import fr.zcraft.quartzlib.core.QuartzLib;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the threads of the workers. These tests are also run against the multi-release jar on Java
+ * 21 and later (see the {@code java21} profile), where the Java 21 implementation of
+ * {@link WorkerThreads} replaces the Java 8 one.
+ */
+public class WorkerThreadsTest {
+    private static final long TIMEOUT = 5;
+
+    /**
+     * Set when the tests are run against the multi-release jar on Java 21 or later.
+     */
+    private static final boolean MULTI_RELEASE_JAR = Boolean.getBoolean("quartzlib.test.multiReleaseJar");
+
+    private Worker worker;
+
+    @BeforeEach
+    public void setUp() {
+        MockBukkit.mock();
+        MockBukkit.load(Toaster.class);
+        worker = QuartzLib.loadComponent(VirtualThreadsWorker.class);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        worker.setEnabled(false);
+        MockBukkit.unmock();
+    }
+
+    @Test
+    public void virtualThreadsAreOnlySupportedByTheJava21Classes() {
+        Assertions.assertEquals(MULTI_RELEASE_JAR, WorkerThreads.isVirtualThreadsSupported());
+    }
+
+    @Test
+    public void virtualThreadExecutorsRunEachTaskOnANewVirtualThread() throws Exception {
+        Assumptions.assumeTrue(WorkerThreads.isVirtualThreadsSupported());
+
+        final ExecutorService executor = WorkerThreads.newVirtualThreadPerTaskExecutor("test-virtual");
+        try {
+            final Thread first = executor.submit(Thread::currentThread).get(TIMEOUT, TimeUnit.SECONDS);
+            final Thread second = executor.submit(Thread::currentThread).get(TIMEOUT, TimeUnit.SECONDS);
+
+            Assertions.assertNotSame(first, second);
+            Assertions.assertEquals("test-virtual", first.getName());
+            Assertions.assertTrue(isVirtual(first));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void virtualThreadExecutorsCannotBeCreatedWithoutVirtualThreads() {
+        Assumptions.assumeFalse(WorkerThreads.isVirtualThreadsSupported());
+
+        Assertions.assertThrows(UnsupportedOperationException.class,
+                () -> WorkerThreads.newVirtualThreadPerTaskExecutor("test-virtual"));
+    }
+
+    @Test
+    public void virtualThreadsWorkersRunTheirQueriesOnVirtualThreadsWhenSupported() throws Exception {
+        final WorkerRunnable<Thread> query = new WorkerRunnable<Thread>() {
+            @Override
+            public Thread run() {
+                return Thread.currentThread();
+            }
+        };
+
+        final Thread first = worker.submit(query).get(TIMEOUT, TimeUnit.SECONDS);
+        final Thread second = worker.submit(query).get(TIMEOUT, TimeUnit.SECONDS);
+
+        // Without virtual threads, the queries run on the dedicated thread of the worker.
+        Assertions.assertEquals(WorkerThreads.isVirtualThreadsSupported(), isVirtual(first));
+        Assertions.assertEquals(WorkerThreads.isVirtualThreadsSupported(), first != second);
+    }
+
+    /**
+     * Calls {@code Thread.isVirtual()}, which does not exist before Java 21.
+     */
+    private static boolean isVirtual(Thread thread) throws ReflectiveOperationException {
+        try {
+            return (Boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    @WorkerAttributes(name = "test-virtual-threads", mode = WorkerMode.VIRTUAL_THREADS)
+    public static final class VirtualThreadsWorker extends Worker {
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright or © or Copr. QuartzLib contributors (2015 - 2020)
+ *
+ * This software is governed by the CeCILL-B license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-B
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-B license and that you accept its terms.
+ */
+
+package fr.zcraft.quartzlib.tools.reflection;
+
+import java.lang.reflect.Field;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the lookup of the caller classes. These tests are also run against the multi-release jar on
+ * Java 9 and later (see the {@code java9} profile), so that the Java 9 implementation of
+ * {@link CallerClassFinder} is checked to return the same classes as the Java 8 one.
+ */
+public class CallerClassFinderTest {
+    /**
+     * Set when the tests are run against the multi-release jar on Java 9 or later.
+     */
+    private static final boolean MULTI_RELEASE_JAR = Boolean.getBoolean("quartzlib.test.multiReleaseJar");
+
+    @Test
+    public void callerClassIsTheClassCallingTheCallingMethod() {
+        Assertions.assertSame(CallerClassFinderTest.class, Callee.getCaller());
+        Assertions.assertSame(Middle.class, Middle.getCallerOfCallee());
+    }
+
+    @Test
+    public void callerClassesOfAnonymousClassesAndLambdasAreFound() {
+        final Class<?>[] anonymousCaller = new Class<?>[1];
+        final Runnable anonymous = new Runnable() {
+            @Override
+            public void run() {
+                anonymousCaller[0] = Callee.getCaller();
+            }
+        };
+        anonymous.run();
+        Assertions.assertSame(anonymous.getClass(), anonymousCaller[0]);
+
+        // The body of a lambda is a method of the class declaring it.
+        final Supplier<Class<?>> lambda = Callee::getCaller;
+        final Supplier<Class<?>> lambdaBody = () -> Callee.getCaller();
+        Assertions.assertSame(CallerClassFinderTest.class, lambdaBody.get());
+        Assertions.assertSame(CallerClassFinderTest.class, lambda.get());
+    }
+
+    @Test
+    public void callerClassOfATypeIsTheFirstSubclassInTheStack() {
+        Assertions.assertSame(SubCaller.class, new SubCaller().getCallerThroughSubclass());
+        Assertions.assertSame(SubCaller.class, new OtherCaller().callSubCaller());
+        Assertions.assertNull(new SubCaller().getCaller(Marker.class));
+    }
+
+    @Test
+    public void theJava9ClassIsUsedFromTheMultiReleaseJar() {
+        Assumptions.assumeTrue(MULTI_RELEASE_JAR);
+
+        boolean stackWalking = false;
+        for (Field field : CallerClassFinder.class.getDeclaredFields()) {
+            stackWalking |= field.getType().getName().equals("java.lang.StackWalker");
+        }
+        Assertions.assertTrue(stackWalking);
+    }
+
+    private interface Marker {
+    }
+
+    private static final class Callee {
+        private static Class<?> getCaller() {
+            return Reflection.getCallerClass();
+        }
+    }
+
+    private static final class Middle {
+        private static Class<?> getCallerOfCallee() {
+            return Callee.getCaller();
+        }
+    }
+
+    private abstract static class BaseCaller {
+        <T> Class<? extends T> getCaller(Class<T> type) {
+            return Reflection.getCallerClass(type);
+        }
+    }
+
+    private static class SubCaller extends BaseCaller {
+        private Class<? extends BaseCaller> getCallerThroughSubclass() {
+            return getCaller(BaseCaller.class);
+        }
+    }
+
+    private static final class OtherCaller {
+        private Class<? extends BaseCaller> callSubCaller() {
+            return new SubCaller().getCallerThroughSubclass();
+        }
+    }
+}
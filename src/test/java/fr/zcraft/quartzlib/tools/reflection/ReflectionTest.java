@@ -30,11 +30,17 @@
 
 package fr.zcraft.quartzlib.tools.reflection;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import junit.framework.Assert;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
 public class ReflectionTest {
@@ -54,4 +60,135 @@ public class ReflectionTest {
         closestType = Reflection.getClosestType(HashMap.class, String.class, List.class, Integer.class);
         Assert.assertEquals(null, closestType);
     }
+
+    @Test
+    public void testMemberLookupsAreCached() throws Exception {
+        final Field field = Reflection.getField(Sample.class, "secret");
+        Assert.assertSame(field, Reflection.getField(Sample.class, "secret"));
+
+        final Sample sample = Reflection.instantiate(Sample.class, "value");
+        Assert.assertEquals("value", field.get(sample)); // Made accessible by the cache.
+        Assert.assertEquals("value", Reflection.getFieldValue(sample, "secret"));
+        Assert.assertEquals("value!", Reflection.call(sample, "shout", "!"));
+
+        Assert.assertSame(Reflection.getMethod(Sample.class, "repeat", int.class),
+                Reflection.getMethod(Sample.class, "repeat", int.class));
+        Assert.assertEquals(field, Reflection.getField(Sample.class, String.class));
+    }
+
+    @Test
+    public void testMissingMembersAreCached() {
+        long resolutions = 0;
+        for (int i = 0; i < 2; i++) {
+            Assertions.assertThrows(NoSuchFieldException.class, () -> Reflection.getField(Sample.class, "missing"));
+            Assertions.assertThrows(NoSuchMethodException.class, () -> Reflection.call(new Sample("a"), "missing"));
+            Assertions.assertThrows(NoSuchMethodException.class, () -> Reflection.instantiate(Sample.class, 42));
+            Assert.assertFalse(Reflection.hasMethod(Sample.class, "repeat", Integer.class));
+
+            // The second time, every lookup hits the cache.
+            if (i == 1) {
+                Assert.assertEquals(resolutions, MemberCache.getResolutionCount());
+            }
+            resolutions = MemberCache.getResolutionCount();
+        }
+
+        Assert.assertTrue(Reflection.hasMethod(Sample.class, "repeat", int.class));
+    }
+
+    @Test
+    public void testMembersAreNotSharedBySameNamedTypes() throws Exception {
+        final Class<?> copy = new CopyingClassLoader().copy(Parameter.class);
+        Assert.assertEquals(Parameter.class.getName(), copy.getName());
+        Assert.assertNotSame(Parameter.class, copy);
+
+        // Both orders: the cached hit must not be returned for the copy, nor the other way round.
+        Assert.assertNotNull(Reflection.getMethod(Sample.class, "accept", Parameter.class));
+        Assertions.assertThrows(NoSuchMethodException.class, () -> Reflection.getMethod(Sample.class, "accept", copy));
+        Assert.assertFalse(Reflection.hasMethod(Sample.class, "accept", copy));
+        Assert.assertEquals(Parameter.class,
+                Reflection.getMethod(Sample.class, "accept", Parameter.class).getParameterTypes()[0]);
+
+        Assert.assertNotNull(Reflection.getField(Sample.class, Parameter.class));
+        Assertions.assertThrows(NoSuchFieldException.class, () -> Reflection.getField(Sample.class, copy));
+    }
+
+    @Test
+    public void testCachedKeysDoNotKeepTheParameterTypesAlive() throws Exception {
+        final WeakReference<ClassLoader> loader = lookUpWithCopy();
+        for (int i = 0; i < 50 && loader.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assert.assertNull(loader.get());
+    }
+
+    private static WeakReference<ClassLoader> lookUpWithCopy() throws IOException {
+        final CopyingClassLoader loader = new CopyingClassLoader();
+        Assert.assertFalse(Reflection.hasMethod(Sample.class, "accept", loader.copy(Parameter.class)));
+        return new WeakReference<>(loader);
+    }
+
+    @Test
+    public void testMethodHandles() throws Throwable {
+        final Sample sample =
+                (Sample) (Object) Reflection.constructor(Sample.class, String.class).invokeExact((Object) "a");
+        Reflection.setter(Sample.class, "count").invokeExact((Object) sample, (Object) 3);
+
+        Assert.assertEquals(3, (int) (Object) Reflection.getter(Sample.class, "count").invokeExact((Object) sample));
+        Assert.assertEquals("aaa", (String) (Object) Reflection.invoker(Sample.class, "repeat", int.class)
+                .invokeExact((Object) sample, (Object) sample.count));
+        Assertions.assertThrows(IllegalAccessException.class, () -> Reflection.setter(Sample.class, "secret"));
+    }
+
+    private static final class Parameter {
+    }
+
+    /**
+     * Defines a copy of a class, with the same name, in another class loader.
+     */
+    private static final class CopyingClassLoader extends ClassLoader {
+        private CopyingClassLoader() {
+            super(ReflectionTest.class.getClassLoader());
+        }
+
+        private Class<?> copy(Class<?> klass) throws IOException {
+            final String resource = klass.getName().replace('.', '/') + ".class";
+            try (InputStream input = getParent().getResourceAsStream(resource)) {
+                final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                final byte[] buffer = new byte[4096];
+                int read;
+                while ((read = input.read(buffer)) != -1) {
+                    bytes.write(buffer, 0, read);
+                }
+                return defineClass(klass.getName(), bytes.toByteArray(), 0, bytes.size());
+            }
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private static final class Sample {
+        private final String secret;
+        private int count;
+        private Parameter parameter;
+
+        private Sample(String secret) {
+            this.secret = secret;
+        }
+
+        private void accept(Parameter parameter) {
+            this.parameter = parameter;
+        }
+
+        private String shout(String suffix) {
+            return secret + suffix;
+        }
+
+        private String repeat(int times) {
+            final StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < times; i++) {
+                builder.append(secret);
+            }
+            return builder.toString();
+        }
+    }
 }
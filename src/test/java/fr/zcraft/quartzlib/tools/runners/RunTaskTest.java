@@ -0,0 +1,264 @@
+/*
+ * Copyright or © or Copr. QuartzLib contributors (2015 - 2020)
+ *
+ * This software is governed by the CeCILL-B license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-B
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-B license and that you accept its terms.
+ */
+
+package fr.zcraft.quartzlib.tools.runners;
+
+import be.seeseemelk.mockbukkit.MockBukkit;
+import be.seeseemelk.mockbukkit.ServerMock;
+import fr.zcraft.quartzlib.Toaster;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class RunTaskTest {
+    private ServerMock server;
+    private Toaster plugin;
+    private long tick;
+
+    @BeforeEach
+    public void setUp() {
+        server = MockBukkit.mock();
+        plugin = MockBukkit.load(Toaster.class);
+        tick = 0;
+    }
+
+    @AfterEach
+    public void tearDown() {
+        MockBukkit.unmock();
+    }
+
+    /**
+     * Advances the server by some ticks, counting them.
+     */
+    private void performTicks(long ticks) {
+        for (long i = 0; i < ticks; i++) {
+            tick++;
+            server.getScheduler().performOneTick();
+        }
+    }
+
+    @Test
+    public void nextTickLightTasksRunAtTheNextTickInPostingOrder() {
+        final List<String> runs = new ArrayList<>();
+        RunTask.nextTickLight(() -> {
+            runs.add("first");
+            RunTask.nextTickLight(() -> runs.add("nested"));
+        });
+        RunTask.nextTickLight(() -> runs.add("second"));
+
+        performTicks(1);
+        Assertions.assertEquals(Arrays.asList("first", "second"), runs);
+
+        // Posted while the queue ran: the next tick.
+        performTicks(1);
+        Assertions.assertEquals(Arrays.asList("first", "second", "nested"), runs);
+    }
+
+    @Test
+    public void nextTickLightTasksAreRunAfterTheQueueIdled() {
+        final AtomicInteger runs = new AtomicInteger();
+        RunTask.nextTickLight(runs::incrementAndGet);
+        performTicks(1);
+
+        // Long enough for the Bukkit task to stop.
+        performTicks(40);
+        RunTask.nextTickLight(runs::incrementAndGet);
+        performTicks(1);
+
+        Assertions.assertEquals(2, runs.get());
+    }
+
+    @Test
+    public void lightTasksAreRunAfterThePluginTasksWereCancelled() {
+        final AtomicInteger runs = new AtomicInteger();
+        RunTask.nextTickLight(runs::incrementAndGet);
+        RunTask.laterLight(runs::incrementAndGet, 1);
+        performTicks(2);
+        Assertions.assertEquals(2, runs.get());
+
+        // Like Bukkit does when the plugin is disabled.
+        server.getScheduler().cancelTasks(plugin);
+
+        RunTask.nextTickLight(runs::incrementAndGet);
+        RunTask.laterLight(runs::incrementAndGet, 1);
+        performTicks(2);
+        Assertions.assertEquals(4, runs.get());
+    }
+
+    @Test
+    public void laterLightTasksDeferredOffTheQueueRunOneTickLate() {
+        final AtomicLong ranAt = new AtomicLong();
+        RunTask.laterLight(() -> ranAt.set(tick), 5);
+
+        performTicks(10);
+        Assertions.assertEquals(6, ranAt.get());
+    }
+
+    @Test
+    public void laterLightTasksDeferredFromAnotherThreadRunOneTickLate() throws InterruptedException {
+        final AtomicLong ranAt = new AtomicLong();
+        final Thread thread = new Thread(() -> RunTask.laterLight(() -> ranAt.set(tick), 5));
+        thread.start();
+        thread.join();
+
+        performTicks(10);
+        Assertions.assertEquals(6, ranAt.get());
+    }
+
+    @Test
+    public void laterLightTasksDeferredFromALightTaskRunExactlyAfterTheirDelay() {
+        final AtomicLong outerRanAt = new AtomicLong();
+        final AtomicLong innerRanAt = new AtomicLong();
+        RunTask.laterLight(() -> {
+            outerRanAt.set(tick);
+            RunTask.laterLight(() -> innerRanAt.set(tick), 3);
+        }, 1);
+
+        performTicks(10);
+        Assertions.assertEquals(outerRanAt.get() + 3, innerRanAt.get());
+    }
+
+    @Test
+    public void laterLightTasksSpanningSeveralWheelLevelsRunOnTime() {
+        final AtomicLong ranAt = new AtomicLong();
+        RunTask.laterLight(() -> ranAt.set(tick), 300);
+
+        performTicks(400);
+        Assertions.assertEquals(301, ranAt.get());
+    }
+
+    @Test
+    public void cancelledLaterLightTasksAreNotRun() {
+        final AtomicInteger runs = new AtomicInteger();
+        final LightTask task = RunTask.laterLight(runs::incrementAndGet, 2);
+
+        Assertions.assertTrue(task.cancel());
+        Assertions.assertFalse(task.cancel());
+        Assertions.assertTrue(task.isCancelled());
+
+        performTicks(5);
+        Assertions.assertEquals(0, runs.get());
+    }
+
+    @Test
+    public void budgetedTasksRunAtLeastOneStepPerTick() {
+        final AtomicInteger steps = new AtomicInteger();
+        final BudgetedTask task = RunTask.budgeted(() -> steps.incrementAndGet() < 3, 0);
+
+        for (int i = 1; i <= 3; i++) {
+            performTicks(1);
+            Assertions.assertEquals(i, steps.get());
+            Assertions.assertEquals(i, task.getProcessed());
+        }
+
+        Assertions.assertTrue(task.isDone());
+        Assertions.assertEquals(3L, task.getCompletion().join());
+        performTicks(2);
+        Assertions.assertEquals(3, steps.get());
+    }
+
+    @Test
+    public void budgetedTasksStopTheirSliceOnceTheBudgetIsSpent() {
+        final List<Integer> elements = Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+        final BudgetedTask task = RunTask.budgeted(elements, element -> sleep(10), 20);
+        Assertions.assertEquals(10, task.getTotal());
+
+        // Steps of 10 ms with a budget of 20 ms: no more than 3 steps per tick.
+        long previous = 0;
+        while (!task.isDone()) {
+            performTicks(1);
+            final long processed = task.getProcessed();
+            Assertions.assertTrue(processed - previous >= 1 && processed - previous <= 3,
+                    (processed - previous) + " steps in a tick");
+            Assertions.assertEquals((double) processed / 10, task.getProgress(), 1e-9);
+            previous = processed;
+        }
+
+        Assertions.assertEquals(10L, task.getCompletion().join());
+        Assertions.assertEquals(1, task.getProgress(), 0);
+    }
+
+    @Test
+    public void budgetedTasksCompleteExceptionallyWhenAStepFails() {
+        final IllegalStateException failure = new IllegalStateException("Step failed");
+        final BudgetedTask task = RunTask.budgeted(() -> {
+            throw failure;
+        }, 5);
+
+        performTicks(1);
+        final CompletionException exception = Assertions.assertThrows(CompletionException.class,
+                () -> task.getCompletion().join());
+        Assertions.assertSame(failure, exception.getCause());
+    }
+
+    @Test
+    public void cancelledBudgetedTasksStopRunning() {
+        final AtomicInteger steps = new AtomicInteger();
+        final BudgetedTask task = RunTask.budgeted(() -> steps.incrementAndGet() > 0, 0);
+        performTicks(2);
+
+        Assertions.assertTrue(task.cancel());
+        Assertions.assertFalse(task.cancel());
+        performTicks(2);
+
+        Assertions.assertEquals(2, steps.get());
+        Assertions.assertThrows(CancellationException.class, () -> task.getCompletion().join());
+    }
+
+    @Test
+    public void budgetedTasksStopWhenTheirCompletionIsCancelled() {
+        final AtomicInteger steps = new AtomicInteger();
+        final BudgetedTask task = RunTask.budgeted(() -> steps.incrementAndGet() > 0, 0);
+        performTicks(2);
+
+        Assertions.assertTrue(task.getCompletion().cancel(false));
+        performTicks(2);
+
+        Assertions.assertEquals(2, steps.get());
+        Assertions.assertTrue(task.isDone());
+        Assertions.assertFalse(task.cancel());
+    }
+
+    private static void sleep(long milliseconds) {
+        try {
+            Thread.sleep(milliseconds);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
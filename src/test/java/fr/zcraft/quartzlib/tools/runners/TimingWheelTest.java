@@ -0,0 +1,143 @@
+/*
+ * Copyright or © or Copr. QuartzLib contributors (2015 - 2020)
+ *
+ * This software is governed by the CeCILL-B license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-B
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-B license and that you accept its terms.
+ */
+
+package fr.zcraft.quartzlib.tools.runners;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class TimingWheelTest {
+    /**
+     * The number of ticks covered by the first three levels (256, 64 and 64 slots), and by the
+     * whole wheel (a fourth level of 64 slots).
+     */
+    private static final long FIRST_LEVEL_SPAN = 256;
+    private static final long SECOND_LEVEL_SPAN = FIRST_LEVEL_SPAN * 64;
+    private static final long THIRD_LEVEL_SPAN = SECOND_LEVEL_SPAN * 64;
+    private static final long WHEEL_SPAN = THIRD_LEVEL_SPAN * 64;
+
+    @Test
+    public void tasksExpireAtTheirTickOnEveryLevel() {
+        final long[] delays = {
+            1, 2, FIRST_LEVEL_SPAN - 1,
+            FIRST_LEVEL_SPAN, FIRST_LEVEL_SPAN + 1, SECOND_LEVEL_SPAN - 1,
+            SECOND_LEVEL_SPAN, SECOND_LEVEL_SPAN + 1, SECOND_LEVEL_SPAN + 12345, THIRD_LEVEL_SPAN - 1,
+            THIRD_LEVEL_SPAN, THIRD_LEVEL_SPAN + 1, WHEEL_SPAN - 1,
+            // Longer than the wheel: cascaded again from the last level.
+            WHEEL_SPAN, WHEEL_SPAN + FIRST_LEVEL_SPAN + 3
+        };
+
+        final TimingWheel wheel = new TimingWheel();
+        // Starts off a level boundary, so that the slots of the upper levels are not aligned.
+        final List<LightTask> expired = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            wheel.advance(expired);
+        }
+
+        final long start = wheel.getCurrentTick();
+        final Map<LightTask, Long> expectedTicks = new HashMap<>();
+        for (long delay : delays) {
+            final LightTask task = new LightTask(() -> { });
+            wheel.add(task, start + delay);
+            expectedTicks.put(task, start + delay);
+        }
+        Assertions.assertEquals(delays.length, wheel.size());
+
+        final long lastTick = start + delays[delays.length - 1];
+        while (wheel.getCurrentTick() < lastTick) {
+            wheel.advance(expired);
+            for (LightTask task : expired) {
+                Assertions.assertEquals(expectedTicks.remove(task), wheel.getCurrentTick());
+            }
+            expired.clear();
+        }
+
+        Assertions.assertTrue(expectedTicks.isEmpty(), expectedTicks.size() + " tasks did not expire");
+        Assertions.assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void tasksAddedTogetherExpireInInsertionOrder() {
+        final TimingWheel wheel = new TimingWheel();
+        final List<LightTask> tasks = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            final LightTask task = new LightTask(() -> { });
+            wheel.add(task, SECOND_LEVEL_SPAN + 10);
+            tasks.add(task);
+        }
+
+        // Cascaded twice on their way to the first level.
+        final List<LightTask> expired = new ArrayList<>();
+        while (wheel.size() > 0) {
+            wheel.advance(expired);
+        }
+        Assertions.assertEquals(tasks, expired);
+        Assertions.assertEquals(SECOND_LEVEL_SPAN + 10, wheel.getCurrentTick());
+    }
+
+    @Test
+    public void tasksInThePastExpireAtTheNextTick() {
+        final TimingWheel wheel = new TimingWheel();
+        final List<LightTask> expired = new ArrayList<>();
+        wheel.advance(expired);
+        wheel.advance(expired);
+
+        final LightTask task = new LightTask(() -> { });
+        wheel.add(task, 0);
+        wheel.advance(expired);
+
+        Assertions.assertEquals(Arrays.asList(task), expired);
+    }
+
+    @Test
+    public void removedTasksDoNotExpire() {
+        final TimingWheel wheel = new TimingWheel();
+        final LightTask removed = new LightTask(() -> { });
+        final LightTask kept = new LightTask(() -> { });
+        wheel.add(removed, FIRST_LEVEL_SPAN + 5);
+        wheel.add(kept, FIRST_LEVEL_SPAN + 5);
+
+        Assertions.assertTrue(wheel.remove(removed));
+        Assertions.assertFalse(wheel.remove(removed));
+        Assertions.assertEquals(1, wheel.size());
+
+        final List<LightTask> expired = new ArrayList<>();
+        for (int tick = 0; tick < FIRST_LEVEL_SPAN + 5; tick++) {
+            wheel.advance(expired);
+        }
+        Assertions.assertEquals(Arrays.asList(kept), expired);
+        Assertions.assertEquals(0, wheel.size());
+    }
+}